@@ -20,7 +20,6 @@ import com.nostra13.universalimageloader.core.assist.FailReason;
 import com.nostra13.universalimageloader.core.assist.ImageScaleType;
 import com.nostra13.universalimageloader.core.download.BaseImageDownloader;
 import com.nostra13.universalimageloader.core.listener.ImageLoadingListener;
-import com.nostra13.universalimageloader.core.process.BitmapProcessor;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 
@@ -30,7 +29,8 @@ import java.lang.ref.WeakReference;
 import java.util.concurrent.Executors;
 
 import it.subito.masaccio.MasaccioImageView;
-import it.subito.masaccio.MasaccioImageView.MasaccioFaceDetector;
+import it.subito.masaccio.imageloader.MasaccioBitmapDisplayer;
+import it.subito.masaccio.imageloader.MasaccioImageDecoder;
 
 public class DemoActivity extends ActionBarActivity {
 
@@ -44,23 +44,22 @@ public class DemoActivity extends ActionBarActivity {
 
     private int[] imageDrawable = {R.drawable.img1, R.drawable.img2, R.drawable.img3, R.drawable.img4};
 
-    private static DisplayImageOptions getProcessorDisplayImageOptions(
-            final BitmapProcessor processor) {
+    private static DisplayImageOptions getMasaccioDisplayImageOptions() {
 
         final DisplayImageOptions.Builder defaultOptionsBuilder = new DisplayImageOptions.Builder();
 
         return defaultOptionsBuilder.imageScaleType(ImageScaleType.NONE)
-                .postProcessor(processor)
+                .displayer(new MasaccioBitmapDisplayer())
                 .build();
     }
 
-    private static ImageLoaderConfiguration getStandardOptions(final Context context,
-                                                               final BitmapProcessor processor) {
+    private static ImageLoaderConfiguration getStandardOptions(final Context context) {
 
         final ImageLoaderConfiguration.Builder config =
                 new ImageLoaderConfiguration.Builder(context);
 
-        config.defaultDisplayImageOptions(getProcessorDisplayImageOptions(processor));
+        config.defaultDisplayImageOptions(getMasaccioDisplayImageOptions());
+        config.imageDecoder(new MasaccioImageDecoder(true));
 
         config.memoryCache(new WeakMemoryCache());
         config.taskExecutor(Executors.newCachedThreadPool());
@@ -104,10 +103,8 @@ public class DemoActivity extends ActionBarActivity {
             }
         });
 
-        // register the processor so to make face detection happen in the background loading thread
-        ImageLoader.getInstance()
-                .init(getStandardOptions(this, new FaceDetectionProcessor(
-                        MasaccioImageView.getFaceDetector())));
+        // register the decoder so to make face detection happen in the background loading thread
+        ImageLoader.getInstance().init(getStandardOptions(this));
 
         nextImage();
     }
@@ -144,24 +141,6 @@ public class DemoActivity extends ActionBarActivity {
         masaccioImageView.setLayoutParams(layoutParams);
     }
 
-    private static class FaceDetectionProcessor implements BitmapProcessor {
-
-        private final MasaccioFaceDetector mDetector;
-
-        public FaceDetectionProcessor(final MasaccioFaceDetector detector) {
-
-            mDetector = detector;
-        }
-
-        @Override
-        public Bitmap process(final Bitmap bitmap) {
-
-            mDetector.process(bitmap);
-
-            return bitmap;
-        }
-    }
-
     private static class OkHttpDownloader extends BaseImageDownloader {
 
         private final OkHttpClient mClient = new OkHttpClient();
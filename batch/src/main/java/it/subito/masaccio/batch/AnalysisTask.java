@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.batch;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import it.subito.masaccio.engine.FocalPoint;
+import it.subito.masaccio.engine.FocalPointIndexWriter;
+
+/**
+ * Fork/join task analyzing a range of images, split in halves until small enough, so that idle
+ * workers can steal the pending ranges of the busy ones.
+ */
+class AnalysisTask extends RecursiveAction {
+
+    private static final int MAX_SEQUENTIAL_IMAGES = 8;
+
+    private static final long serialVersionUID = 2430758245393734981L;
+
+    private final ImageAnalyzer mAnalyzer;
+
+    private final int mFrom;
+
+    private final List<ImageSource> mSources;
+
+    private final Statistics mStatistics;
+
+    private final int mTo;
+
+    private final FocalPointIndexWriter mWriter;
+
+    AnalysisTask(final List<ImageSource> sources, final int from, final int to,
+            final ImageAnalyzer analyzer, final FocalPointIndexWriter writer,
+            final Statistics statistics) {
+
+        mSources = sources;
+        mFrom = from;
+        mTo = to;
+        mAnalyzer = analyzer;
+        mWriter = writer;
+        mStatistics = statistics;
+    }
+
+    @Override
+    protected void compute() {
+
+        final int from = mFrom;
+        final int to = mTo;
+
+        if ((to - from) > MAX_SEQUENTIAL_IMAGES) {
+
+            final int middle = (from + to) >>> 1;
+
+            invokeAll(new AnalysisTask(mSources, from, middle, mAnalyzer, mWriter, mStatistics),
+                      new AnalysisTask(mSources, middle, to, mAnalyzer, mWriter, mStatistics));
+
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+
+            final ImageSource source = mSources.get(i);
+
+            try {
+
+                final FocalPoint focalPoint = mAnalyzer.analyze(source, mStatistics);
+
+                if (focalPoint != null) {
+
+                    mWriter.add(focalPoint);
+
+                } else {
+
+                    System.err.println("Unsupported image: " + source.getFile());
+
+                    mStatistics.onImageFailed();
+                }
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+                return;
+
+            } catch (final Exception e) {
+
+                System.err.println("Cannot analyze " + source.getFile() + ": " + e);
+
+                mStatistics.onImageFailed();
+            }
+        }
+    }
+}
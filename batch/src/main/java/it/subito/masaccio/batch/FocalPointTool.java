@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import it.subito.masaccio.engine.FocalPointIndex;
+import it.subito.masaccio.engine.FocalPointIndexWriter;
+import it.subito.masaccio.engine.HaarFaceDetector;
+
+/**
+ * Command line tool computing the focal points of a set of images and writing them into a
+ * {@link it.subito.masaccio.engine.FocalPointIndex}.
+ * <p/>
+ * The images are read from directories, recursively, or from list files containing one path per
+ * line, optionally preceded by the image identifier and a tab. By default, an image is identified
+ * by its file name without the extension. When more images share the same key, only the first
+ * one in the order above is analyzed.
+ */
+public class FocalPointTool {
+
+    private static final int DEFAULT_ANALYSIS_SIZE = 512;
+
+    private static final Set<String> IMAGE_EXTENSIONS =
+            new HashSet<String>(Arrays.asList("bmp", "gif", "jpeg", "jpg", "png"));
+
+    private static final String LIST_FILE_PREFIX = "@";
+
+    private static final long REPORT_PERIOD_SECONDS = 10;
+
+    private static final String USAGE =
+            "Usage: masaccio-focal-points -output <index file> [-threads <count>] "
+                    + "[-decoded <max decoded images>] [-size <analysis size>] "
+                    + "<image directory | image file | @list file>...";
+
+    public static void main(final String[] args) throws IOException {
+
+        File outputFile = null;
+
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int maxDecodedImages = -1;
+        int analysisSize = DEFAULT_ANALYSIS_SIZE;
+
+        final List<ImageSource> sources = new ArrayList<ImageSource>();
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+
+                final String arg = args[i];
+
+                if ("-output".equals(arg)) {
+
+                    outputFile = new File(args[++i]);
+
+                } else if ("-threads".equals(arg)) {
+
+                    threadCount = Integer.parseInt(args[++i]);
+
+                } else if ("-decoded".equals(arg)) {
+
+                    maxDecodedImages = Integer.parseInt(args[++i]);
+
+                } else if ("-size".equals(arg)) {
+
+                    analysisSize = Integer.parseInt(args[++i]);
+
+                } else if (arg.startsWith(LIST_FILE_PREFIX)) {
+
+                    readList(new File(arg.substring(LIST_FILE_PREFIX.length())), sources);
+
+                } else {
+
+                    addImages(new File(arg), sources);
+                }
+            }
+
+        } catch (final ArrayIndexOutOfBoundsException | NumberFormatException e) {
+
+            exitWithUsage();
+        }
+
+        if ((outputFile == null) || sources.isEmpty() || (threadCount < 1) || (analysisSize
+                < 1)) {
+
+            exitWithUsage();
+        }
+
+        removeDuplicates(sources);
+
+        if (maxDecodedImages < 1) {
+
+            maxDecodedImages = threadCount;
+        }
+
+        final HaarFaceDetector.Config config = new HaarFaceDetector.Config();
+
+        // The images are already analyzed in parallel
+        config.setParallelism(1);
+
+        final ImageAnalyzer analyzer =
+                new ImageAnalyzer(new HaarFaceDetector(config), analysisSize, maxDecodedImages);
+
+        final FocalPointIndexWriter writer = new FocalPointIndexWriter();
+
+        final Statistics statistics = new Statistics(sources.size());
+
+        final ScheduledExecutorService reporter =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+
+                        final Thread thread = new Thread(runnable, "Masaccio-Report");
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+        reporter.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+
+                statistics.report(System.out);
+            }
+
+        }, REPORT_PERIOD_SECONDS, REPORT_PERIOD_SECONDS, TimeUnit.SECONDS);
+
+        final ForkJoinPool pool = new ForkJoinPool(threadCount);
+
+        try {
+
+            pool.invoke(new AnalysisTask(sources, 0, sources.size(), analyzer, writer,
+                                         statistics));
+
+        } finally {
+
+            pool.shutdown();
+            reporter.shutdownNow();
+        }
+
+        final OutputStream outputStream = new FileOutputStream(outputFile);
+
+        try {
+
+            writer.write(outputStream);
+
+        } finally {
+
+            outputStream.close();
+        }
+
+        statistics.report(System.out);
+
+        System.out.println(writer.size() + " focal points written to " + outputFile);
+    }
+
+    private static void addImages(final File file, final List<ImageSource> sources) throws
+            IOException {
+
+        if (!file.isDirectory()) {
+
+            sources.add(ImageSource.fromFile(file));
+
+            return;
+        }
+
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+
+                if (attrs.isRegularFile() && isImage(path.toFile())) {
+
+                    sources.add(ImageSource.fromFile(path.toFile()));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void exitWithUsage() {
+
+        System.err.println(USAGE);
+
+        System.exit(1);
+    }
+
+    private static boolean isImage(final File file) {
+
+        final String name = file.getName();
+
+        final int extensionIndex = name.lastIndexOf('.');
+
+        return (extensionIndex > 0) && IMAGE_EXTENSIONS.contains(
+                name.substring(extensionIndex + 1).toLowerCase(Locale.US));
+    }
+
+    private static void removeDuplicates(final List<ImageSource> sources) {
+
+        final Set<Long> keys = new HashSet<Long>();
+
+        final Iterator<ImageSource> iterator = sources.iterator();
+
+        while (iterator.hasNext()) {
+
+            final ImageSource source = iterator.next();
+
+            if (!keys.add(FocalPointIndex.getKey(source.getId()))) {
+
+                System.err.println("Duplicate image identifier: " + source.getFile());
+
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void readList(final File file, final List<ImageSource> sources) throws
+            IOException {
+
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+
+                if (line.isEmpty()) {
+
+                    continue;
+                }
+
+                final int separatorIndex = line.indexOf('\t');
+
+                if (separatorIndex > 0) {
+
+                    sources.add(new ImageSource(line.substring(0, separatorIndex).trim(),
+                                                new File(line.substring(separatorIndex + 1)
+                                                             .trim())));
+
+                } else {
+
+                    sources.add(ImageSource.fromFile(new File(line)));
+                }
+            }
+
+        } finally {
+
+            reader.close();
+        }
+    }
+}
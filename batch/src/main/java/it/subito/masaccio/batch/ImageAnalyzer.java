@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.batch;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import it.subito.masaccio.engine.FaceRegion;
+import it.subito.masaccio.engine.FocalPoint;
+import it.subito.masaccio.engine.FocalPointIndex;
+import it.subito.masaccio.engine.HaarFaceDetector;
+import it.subito.masaccio.engine.LuminanceImage;
+
+/**
+ * Decodes the images at a reduced resolution and computes their focal points.
+ * <p/>
+ * The images are subsampled while being decoded, and the number of the ones held in memory at
+ * the same time is bounded by a semaphore, so that the memory usage does not depend on the image
+ * sizes nor on the number of threads.
+ */
+class ImageAnalyzer {
+
+    private final int mAnalysisSize;
+
+    private final Semaphore mDecodePermits;
+
+    private final HaarFaceDetector mDetector;
+
+    ImageAnalyzer(final HaarFaceDetector detector, final int analysisSize,
+            final int maxDecodedImages) {
+
+        mDetector = detector;
+        mAnalysisSize = analysisSize;
+        mDecodePermits = new Semaphore(maxDecodedImages);
+    }
+
+    /**
+     * Returns the focal point of the specified image, or null if it cannot be decoded.
+     */
+    FocalPoint analyze(final ImageSource source, final Statistics statistics) throws
+            IOException, InterruptedException {
+
+        final int[] size = new int[2];
+
+        final LuminanceImage image;
+
+        mDecodePermits.acquire();
+
+        try {
+
+            final BufferedImage decoded = decode(source.getFile(), size);
+
+            if (decoded == null) {
+
+                return null;
+            }
+
+            image = toLuminance(decoded);
+
+        } finally {
+
+            mDecodePermits.release();
+        }
+
+        final List<FaceRegion> faces = mDetector.detect(image);
+
+        statistics.onImageAnalyzed((long) size[0] * size[1], !faces.isEmpty());
+
+        return FocalPoint.from(FocalPointIndex.getKey(source.getId()), size[0], size[1], faces,
+                               (float) image.getWidth() / size[0]);
+    }
+
+    private BufferedImage decode(final File file, final int[] size) throws IOException {
+
+        final ImageInputStream inputStream = ImageIO.createImageInputStream(file);
+
+        if (inputStream == null) {
+
+            return null;
+        }
+
+        try {
+
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+
+            if (!readers.hasNext()) {
+
+                return null;
+            }
+
+            final ImageReader reader = readers.next();
+
+            try {
+
+                reader.setInput(inputStream, true, true);
+
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+
+                size[0] = width;
+                size[1] = height;
+
+                // Let the reader skip the pixels not needed for the analysis
+                final int subsampling = Math.max(1, Math.max(width, height) / mAnalysisSize);
+
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                return reader.read(0, param);
+
+            } finally {
+
+                reader.dispose();
+            }
+
+        } finally {
+
+            inputStream.close();
+        }
+    }
+
+    private LuminanceImage toLuminance(final BufferedImage decoded) {
+
+        final float scale = Math.min(1,
+                                     (float) mAnalysisSize / Math.max(decoded.getWidth(),
+                                                                      decoded.getHeight()));
+
+        final int width = Math.max(1, Math.round(decoded.getWidth() * scale));
+        final int height = Math.max(1, Math.round(decoded.getHeight() * scale));
+
+        final BufferedImage scaled;
+
+        if ((width == decoded.getWidth()) && (height == decoded.getHeight())) {
+
+            scaled = decoded;
+
+        } else {
+
+            scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+            final Graphics2D graphics = scaled.createGraphics();
+
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                      RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(decoded, 0, 0, width, height, null);
+            graphics.dispose();
+        }
+
+        final int[] pixels = scaled.getRGB(0, 0, width, height, null, 0, width);
+
+        return LuminanceImage.fromArgb(pixels, width, height);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.batch;
+
+import java.io.File;
+
+/**
+ * Image file to be analyzed, together with the identifier its focal point is indexed by.
+ */
+class ImageSource {
+
+    private final File mFile;
+
+    private final String mId;
+
+    ImageSource(final String id, final File file) {
+
+        mId = id;
+        mFile = file;
+    }
+
+    /**
+     * Returns a source identified by the file name, without its extension.
+     */
+    static ImageSource fromFile(final File file) {
+
+        final String name = file.getName();
+
+        final int extensionIndex = name.lastIndexOf('.');
+
+        return new ImageSource((extensionIndex > 0) ? name.substring(0, extensionIndex) : name,
+                               file);
+    }
+
+    File getFile() {
+
+        return mFile;
+    }
+
+    String getId() {
+
+        return mId;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.batch;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of the analyzed images, used to report the throughput.
+ */
+class Statistics {
+
+    private final AtomicLong mFaceCount = new AtomicLong();
+
+    private final AtomicLong mFailureCount = new AtomicLong();
+
+    private final AtomicLong mImageCount = new AtomicLong();
+
+    private final AtomicLong mPixelCount = new AtomicLong();
+
+    private final long mStartTime = System.nanoTime();
+
+    private final int mTotalCount;
+
+    Statistics(final int totalCount) {
+
+        mTotalCount = totalCount;
+    }
+
+    void onImageAnalyzed(final long pixels, final boolean hasFaces) {
+
+        mImageCount.incrementAndGet();
+        mPixelCount.addAndGet(pixels);
+
+        if (hasFaces) {
+
+            mFaceCount.incrementAndGet();
+        }
+    }
+
+    void onImageFailed() {
+
+        mFailureCount.incrementAndGet();
+    }
+
+    void report(final PrintStream out) {
+
+        final long elapsedMs =
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartTime));
+
+        final long imageCount = mImageCount.get();
+
+        out.printf("%d/%d images (%d with faces, %d failed) in %.1f s: %.1f images/s, "
+                           + "%.1f Mpixels/s%n", imageCount + mFailureCount.get(), mTotalCount,
+                   mFaceCount.get(), mFailureCount.get(), elapsedMs / 1000f,
+                   (imageCount * 1000f) / elapsedMs, mPixelCount.get() / (elapsedMs * 1000f));
+    }
+}
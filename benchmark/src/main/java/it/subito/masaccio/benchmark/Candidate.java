@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import it.subito.masaccio.engine.FocalPoint;
+import it.subito.masaccio.engine.HaarFaceDetector;
+import it.subito.masaccio.engine.LuminanceImage;
+import it.subito.masaccio.engine.SaliencyEstimator;
+
+/**
+ * Detector configuration being benchmarked.
+ * <p/>
+ * The analysis includes the downscaling of the decoded image to the configured size, as it is
+ * part of the cost paid by the library for each bitmap.
+ */
+abstract class Candidate {
+
+    private final int mAnalysisSize;
+
+    private final String mName;
+
+    Candidate(final String name, final int analysisSize) {
+
+        mName = name;
+        mAnalysisSize = analysisSize;
+    }
+
+    /**
+     * Returns a candidate running the Haar detector on the image downscaled to the specified
+     * size, or at full resolution if the size is not positive.
+     */
+    static Candidate haar(final int analysisSize, final int maxFaces) {
+
+        final HaarFaceDetector.Config config = new HaarFaceDetector.Config();
+        config.setMaxFaces(maxFaces);
+
+        final HaarFaceDetector detector = new HaarFaceDetector(config);
+
+        final String size = (analysisSize > 0) ? Integer.toString(analysisSize) : "full";
+
+        return new Candidate("haar/" + size + "/" + maxFaces, analysisSize) {
+
+            @Override
+            Estimate analyze(final LuminanceImage image, final int imageWidth,
+                    final int imageHeight) {
+
+                return new Estimate(FocalPoint.from(0, imageWidth, imageHeight,
+                                                    detector.detect(image),
+                                                    (float) image.getWidth() / imageWidth),
+                                    false);
+            }
+        };
+    }
+
+    /**
+     * Returns a candidate running the Haar detector and falling back to the saliency estimate,
+     * computed on the same image, when no face is found.
+     */
+    static Candidate haarWithSaliency(final int analysisSize) {
+
+        final Candidate haar = haar(analysisSize, new HaarFaceDetector.Config().getMaxFaces());
+
+        final SaliencyEstimator estimator = new SaliencyEstimator();
+
+        return new Candidate(haar.getName() + "+saliency", analysisSize) {
+
+            @Override
+            Estimate analyze(final LuminanceImage image, final int imageWidth,
+                    final int imageHeight) {
+
+                final Estimate estimate = haar.analyze(image, imageWidth, imageHeight);
+
+                if (estimate.hasFace()) {
+
+                    return estimate;
+                }
+
+                return new Estimate(estimator.estimate(image), true);
+            }
+        };
+    }
+
+    static Candidate saliency(final int analysisSize) {
+
+        final SaliencyEstimator estimator = new SaliencyEstimator();
+
+        return new Candidate("saliency/" + analysisSize, analysisSize) {
+
+            @Override
+            Estimate analyze(final LuminanceImage image, final int imageWidth,
+                    final int imageHeight) {
+
+                return new Estimate(estimator.estimate(image), true);
+            }
+        };
+    }
+
+    private static LuminanceImage toLuminance(final BufferedImage decoded, final int maxSize) {
+
+        final float scale = (maxSize > 0) ? Math.min(1, (float) maxSize / Math.max(
+                decoded.getWidth(), decoded.getHeight())) : 1;
+
+        final int width = Math.max(1, Math.round(decoded.getWidth() * scale));
+        final int height = Math.max(1, Math.round(decoded.getHeight() * scale));
+
+        final BufferedImage scaled;
+
+        if ((width == decoded.getWidth()) && (height == decoded.getHeight())) {
+
+            scaled = decoded;
+
+        } else {
+
+            scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+            final Graphics2D graphics = scaled.createGraphics();
+
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                      RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(decoded, 0, 0, width, height, null);
+            graphics.dispose();
+        }
+
+        final int[] pixels = scaled.getRGB(0, 0, width, height, null, 0, width);
+
+        return LuminanceImage.fromArgb(pixels, width, height);
+    }
+
+    /**
+     * Returns the focal point of the decoded image, whose coordinates are fractions of the image
+     * size.
+     */
+    Estimate analyze(final BufferedImage decoded) {
+
+        return analyze(toLuminance(decoded, mAnalysisSize), decoded.getWidth(),
+                       decoded.getHeight());
+    }
+
+    String getName() {
+
+        return mName;
+    }
+
+    abstract Estimate analyze(LuminanceImage image, int imageWidth, int imageHeight);
+
+    /**
+     * Focal point found by a candidate, either on a face or on the salient point of the image.
+     */
+    static class Estimate {
+
+        private final FocalPoint mFocalPoint;
+
+        private final boolean mSalient;
+
+        Estimate(final FocalPoint focalPoint, final boolean isSalient) {
+
+            mFocalPoint = focalPoint;
+            mSalient = isSalient;
+        }
+
+        FocalPoint getFocalPoint() {
+
+            return mFocalPoint;
+        }
+
+        boolean hasFace() {
+
+            return !mSalient && mFocalPoint.hasFace();
+        }
+
+        boolean hasSalientPoint() {
+
+            return mSalient && mFocalPoint.hasFace();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import it.subito.masaccio.engine.FocalPoint;
+import it.subito.masaccio.engine.HaarFaceDetector;
+
+/**
+ * Command line tool running a set of detector configurations over an image corpus, and reporting
+ * their latency percentiles, their peak heap usage and how far the center of the resulting crop
+ * is from the reference one.
+ * <p/>
+ * The reference focal points are read from a properties file mapping each image name, without
+ * the extension, to its normalized "x,y" coordinates, or to "none" if the image has no face. The
+ * images missing from the file, or all of them if no file is specified, take as reference the
+ * result of the Haar detector run at full resolution.
+ * <p/>
+ * The crop deviation is the distance between the centers of the crops computed from the candidate
+ * and the reference focal points, as a fraction of the image size. The crop is centered on the
+ * focal point, clamped to the image bounds, or on the image center if there is no focal point.
+ */
+public class DetectorBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    private static final int[] DEFAULT_SIZES = {512, 320, 200};
+
+    private static final int DEFAULT_WARMUP = 3;
+
+    private static final Set<String> IMAGE_EXTENSIONS =
+            new HashSet<String>(Arrays.asList("bmp", "gif", "jpeg", "jpg", "png"));
+
+    private static final String NO_FACE = "none";
+
+    private static final int SALIENCY_SIZE = 64;
+
+    private static final String USAGE =
+            "Usage: masaccio-benchmark [-iterations <count>] [-warmup <count>] "
+                    + "[-sizes <analysis size>,...] [-ratio <frame height/width>] "
+                    + "[-reference <properties file>] <image directory | image file>...";
+
+    public static void main(final String[] args) throws IOException {
+
+        int iterations = DEFAULT_ITERATIONS;
+        int warmup = DEFAULT_WARMUP;
+        int[] sizes = DEFAULT_SIZES;
+        float frameRatio = 1;
+
+        final Properties reference = new Properties();
+
+        final List<File> files = new ArrayList<File>();
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+
+                final String arg = args[i];
+
+                if ("-iterations".equals(arg)) {
+
+                    iterations = Integer.parseInt(args[++i]);
+
+                } else if ("-warmup".equals(arg)) {
+
+                    warmup = Integer.parseInt(args[++i]);
+
+                } else if ("-sizes".equals(arg)) {
+
+                    sizes = parseSizes(args[++i]);
+
+                } else if ("-ratio".equals(arg)) {
+
+                    frameRatio = Float.parseFloat(args[++i]);
+
+                } else if ("-reference".equals(arg)) {
+
+                    readReference(new File(args[++i]), reference);
+
+                } else {
+
+                    addImages(new File(arg), files);
+                }
+            }
+
+        } catch (final ArrayIndexOutOfBoundsException | NumberFormatException e) {
+
+            exitWithUsage();
+        }
+
+        if (files.isEmpty() || (iterations < 1) || (warmup < 0) || !(frameRatio > 0)) {
+
+            exitWithUsage();
+        }
+
+        final List<String> names = new ArrayList<String>();
+        final List<BufferedImage> images = new ArrayList<BufferedImage>();
+
+        for (final File file : files) {
+
+            final BufferedImage image = ImageIO.read(file);
+
+            if (image == null) {
+
+                System.err.println("Cannot decode " + file);
+
+                continue;
+            }
+
+            names.add(getName(file));
+            images.add(image);
+        }
+
+        final int defaultMaxFaces = new HaarFaceDetector.Config().getMaxFaces();
+
+        final Candidate referenceCandidate = Candidate.haar(0, defaultMaxFaces);
+
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        candidates.add(referenceCandidate);
+
+        for (final int size : sizes) {
+
+            candidates.add(Candidate.haar(size, defaultMaxFaces));
+            candidates.add(Candidate.haar(size, 1));
+        }
+
+        candidates.add(Candidate.saliency(SALIENCY_SIZE));
+        candidates.add(Candidate.haarWithSaliency(sizes[sizes.length - 1]));
+
+        final int imageCount = images.size();
+
+        final float[][] referenceCenters = new float[imageCount][];
+
+        for (int i = 0; i < imageCount; i++) {
+
+            final BufferedImage image = images.get(i);
+
+            final String point = reference.getProperty(names.get(i));
+
+            final FocalPoint focalPoint;
+
+            if (point != null) {
+
+                focalPoint = parseFocalPoint(point, image.getWidth(), image.getHeight());
+
+            } else {
+
+                focalPoint = referenceCandidate.analyze(image).getFocalPoint();
+            }
+
+            referenceCenters[i] = getCropCenter(focalPoint, frameRatio);
+        }
+
+        System.out.println(imageCount + " images, " + iterations + " iterations, frame ratio "
+                                   + frameRatio);
+
+        Results.printHeader(System.out);
+
+        for (final Candidate candidate : candidates) {
+
+            final Results results = new Results(candidate.getName());
+
+            for (int i = 0; i < warmup; i++) {
+
+                for (final BufferedImage image : images) {
+
+                    candidate.analyze(image);
+                }
+            }
+
+            final List<MemoryPoolMXBean> pools = getHeapPools();
+
+            System.gc();
+
+            long baseline = 0;
+
+            for (final MemoryPoolMXBean pool : pools) {
+
+                pool.resetPeakUsage();
+                baseline += pool.getUsage().getUsed();
+            }
+
+            for (int i = 0; i < iterations; i++) {
+
+                for (int j = 0; j < imageCount; j++) {
+
+                    final long startTime = System.nanoTime();
+
+                    final Candidate.Estimate estimate = candidate.analyze(images.get(j));
+
+                    results.addLatency(System.nanoTime() - startTime);
+
+                    if (i == 0) {
+
+                        final float[] center =
+                                getCropCenter(estimate.getFocalPoint(), frameRatio);
+                        final float[] referenceCenter = referenceCenters[j];
+
+                        results.addDeviation(
+                                (float) Math.hypot(center[0] - referenceCenter[0],
+                                                   center[1] - referenceCenter[1]),
+                                estimate);
+                    }
+                }
+            }
+
+            long peak = 0;
+
+            for (final MemoryPoolMXBean pool : pools) {
+
+                peak += pool.getPeakUsage().getUsed();
+            }
+
+            // Exclude the decoded corpus and whatever else survived the collection
+            results.setPeakMemory(Math.max(0, peak - baseline));
+            results.print(System.out);
+        }
+    }
+
+    private static void addImages(final File file, final List<File> files) {
+
+        if (!file.isDirectory()) {
+
+            files.add(file);
+
+            return;
+        }
+
+        final File[] children = file.listFiles();
+
+        if (children == null) {
+
+            return;
+        }
+
+        Arrays.sort(children);
+
+        for (final File child : children) {
+
+            final String name = child.getName();
+
+            final int index = name.lastIndexOf('.');
+
+            if (child.isFile() && (index >= 0) && IMAGE_EXTENSIONS.contains(
+                    name.substring(index + 1).toLowerCase(Locale.US))) {
+
+                files.add(child);
+            }
+        }
+    }
+
+    private static void exitWithUsage() {
+
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+
+    /**
+     * Returns the center of the crop of the image to the specified frame aspect ratio, as a
+     * fraction of the image size.
+     */
+    private static float[] getCropCenter(final FocalPoint focalPoint, final float frameRatio) {
+
+        if (!focalPoint.hasFace()) {
+
+            return new float[]{0.5f, 0.5f};
+        }
+
+        final float width = focalPoint.getImageWidth();
+        final float height = focalPoint.getImageHeight();
+
+        final float cropWidth = Math.min(width, height / frameRatio);
+        final float cropHeight = Math.min(height, width * frameRatio);
+
+        final float centerX = Math.max(cropWidth / 2,
+                                       Math.min(width - cropWidth / 2, focalPoint.getX() * width));
+        final float centerY = Math.max(cropHeight / 2, Math.min(height - cropHeight / 2,
+                                                                focalPoint.getY() * height));
+
+        return new float[]{centerX / width, centerY / height};
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+
+        final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (pool.getType() == MemoryType.HEAP) {
+
+                pools.add(pool);
+            }
+        }
+
+        return pools;
+    }
+
+    private static String getName(final File file) {
+
+        final String name = file.getName();
+
+        final int index = name.lastIndexOf('.');
+
+        return (index > 0) ? name.substring(0, index) : name;
+    }
+
+    private static FocalPoint parseFocalPoint(final String point, final int width,
+            final int height) {
+
+        if (NO_FACE.equals(point.trim())) {
+
+            return new FocalPoint(0, width, height, Float.NaN, Float.NaN, 0, 0);
+        }
+
+        final String[] coordinates = point.split(",");
+
+        if (coordinates.length != 2) {
+
+            throw new NumberFormatException("Invalid focal point: " + point);
+        }
+
+        return new FocalPoint(0, width, height, Float.parseFloat(coordinates[0].trim()),
+                              Float.parseFloat(coordinates[1].trim()), 0, 1);
+    }
+
+    private static int[] parseSizes(final String list) {
+
+        final String[] tokens = list.split(",");
+
+        final int[] sizes = new int[tokens.length];
+
+        for (int i = 0; i < tokens.length; i++) {
+
+            sizes[i] = Integer.parseInt(tokens[i].trim());
+
+            if (sizes[i] < 1) {
+
+                throw new NumberFormatException("Invalid analysis size: " + tokens[i]);
+            }
+        }
+
+        return sizes;
+    }
+
+    private static void readReference(final File file, final Properties reference) throws
+            IOException {
+
+        final InputStream inputStream = new FileInputStream(file);
+
+        try {
+
+            reference.load(inputStream);
+
+        } finally {
+
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.benchmark;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Latencies, memory usage and crop deviations collected for a candidate over the whole corpus.
+ */
+class Results {
+
+    private static final float BYTES_PER_MB = 1024 * 1024;
+
+    private static final float NANOS_PER_MS = 1000000;
+
+    private final String mName;
+
+    private int mDeviationCount;
+
+    private float mDeviationSum;
+
+    private int mFaceCount;
+
+    private long[] mLatencies = new long[64];
+
+    private int mLatencyCount;
+
+    private float mMaxDeviation;
+
+    private long mPeakMemory;
+
+    private int mSalientPointCount;
+
+    Results(final String name) {
+
+        mName = name;
+    }
+
+    static void printHeader(final PrintStream out) {
+
+        out.printf("%-24s %9s %9s %9s %9s %7s %7s %9s %9s%n", "candidate", "p50 ms", "p95 ms",
+                   "p99 ms", "peak MB", "faces", "salient", "mean dev", "max dev");
+    }
+
+    /**
+     * Adds the crop deviation of an image, counting whether the estimate is a face or a salient
+     * point.
+     */
+    void addDeviation(final float deviation, final Candidate.Estimate estimate) {
+
+        mDeviationSum += deviation;
+        mDeviationCount++;
+        mMaxDeviation = Math.max(mMaxDeviation, deviation);
+
+        if (estimate.hasFace()) {
+
+            mFaceCount++;
+
+        } else if (estimate.hasSalientPoint()) {
+
+            mSalientPointCount++;
+        }
+    }
+
+    void addLatency(final long latencyNs) {
+
+        if (mLatencyCount == mLatencies.length) {
+
+            mLatencies = Arrays.copyOf(mLatencies, mLatencyCount * 2);
+        }
+
+        mLatencies[mLatencyCount++] = latencyNs;
+    }
+
+    /**
+     * Returns the nearest-rank percentile of the latencies, in nanoseconds.
+     */
+    long getPercentile(final float percentile) {
+
+        if (mLatencyCount == 0) {
+
+            return 0;
+        }
+
+        final long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+
+        Arrays.sort(sorted);
+
+        final int rank = (int) Math.ceil(percentile * mLatencyCount);
+
+        return sorted[Math.max(0, Math.min(mLatencyCount, rank) - 1)];
+    }
+
+    void print(final PrintStream out) {
+
+        final float meanDeviation = (mDeviationCount > 0) ? mDeviationSum / mDeviationCount : 0;
+
+        out.printf("%-24s %9.2f %9.2f %9.2f %9.1f %3d/%-3d %3d/%-3d %9.4f %9.4f%n", mName,
+                   getPercentile(0.5f) / NANOS_PER_MS, getPercentile(0.95f) / NANOS_PER_MS,
+                   getPercentile(0.99f) / NANOS_PER_MS, mPeakMemory / BYTES_PER_MB, mFaceCount,
+                   mDeviationCount, mSalientPointCount, mDeviationCount, meanDeviation,
+                   mMaxDeviation);
+    }
+
+    void setPeakMemory(final long bytes) {
+
+        mPeakMemory = bytes;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+/**
+ * Square region of an image containing a face, expressed in pixel coordinates.
+ */
+public class FaceRegion {
+
+    private static final float EYES_DISTANCE_RATIO = 0.45f;
+
+    private static final float MID_POINT_RATIO_Y = 0.35f;
+
+    private final float mConfidence;
+
+    private final int mSize;
+
+    private final int mX;
+
+    private final int mY;
+
+    public FaceRegion(final int x, final int y, final int size, final float confidence) {
+
+        mX = x;
+        mY = y;
+        mSize = size;
+        mConfidence = confidence;
+    }
+
+    public float getConfidence() {
+
+        return mConfidence;
+    }
+
+    /**
+     * Returns the estimated distance between the eyes.
+     */
+    public float getEyesDistance() {
+
+        return mSize * EYES_DISTANCE_RATIO;
+    }
+
+    /**
+     * Returns the horizontal position of the point between the eyes.
+     */
+    public float getMidPointX() {
+
+        return mX + (mSize / 2f);
+    }
+
+    /**
+     * Returns the vertical position of the point between the eyes.
+     */
+    public float getMidPointY() {
+
+        return mY + (mSize * MID_POINT_RATIO_Y);
+    }
+
+    public int getSize() {
+
+        return mSize;
+    }
+
+    public int getX() {
+
+        return mX;
+    }
+
+    public int getY() {
+
+        return mY;
+    }
+
+    /**
+     * Returns the ratio between the intersection and the union of the two regions.
+     */
+    public float overlap(final FaceRegion other) {
+
+        final int left = Math.max(mX, other.mX);
+        final int top = Math.max(mY, other.mY);
+        final int right = Math.min(mX + mSize, other.mX + other.mSize);
+        final int bottom = Math.min(mY + mSize, other.mY + other.mSize);
+
+        if ((right <= left) || (bottom <= top)) {
+
+            return 0;
+        }
+
+        final float intersection = (float) (right - left) * (bottom - top);
+        final float union = ((float) mSize * mSize) + ((float) other.mSize * other.mSize)
+                - intersection;
+
+        return intersection / union;
+    }
+
+    @Override
+    public String toString() {
+
+        return "FaceRegion{x=" + mX + ", y=" + mY + ", size=" + mSize + ", confidence="
+                + mConfidence + "}";
+    }
+}
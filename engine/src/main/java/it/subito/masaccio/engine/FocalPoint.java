@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import java.util.List;
+
+/**
+ * Point of an image the crop should be centered on, expressed as a fraction of the image size,
+ * together with the size and confidence of the face it was derived from.
+ * <p/>
+ * Images containing no faces are described by a focal point with undefined coordinates, so that
+ * they need not be analyzed again.
+ */
+public class FocalPoint {
+
+    private final float mConfidence;
+
+    private final float mEyesDistance;
+
+    private final int mImageHeight;
+
+    private final int mImageWidth;
+
+    private final long mKey;
+
+    private final float mX;
+
+    private final float mY;
+
+    public FocalPoint(final long key, final int imageWidth, final int imageHeight, final float x,
+            final float y, final float eyesDistance, final float confidence) {
+
+        mKey = key;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mX = x;
+        mY = y;
+        mEyesDistance = eyesDistance;
+        mConfidence = confidence;
+    }
+
+    /**
+     * Returns the focal point of the face with the highest confidence, or one with undefined
+     * coordinates if no face was detected.
+     *
+     * @param faces the faces detected in an image of the specified size, scaled by the specified
+     *              factor.
+     */
+    public static FocalPoint from(final long key, final int imageWidth, final int imageHeight,
+            final List<FaceRegion> faces, final float scale) {
+
+        FaceRegion bestFace = null;
+
+        for (final FaceRegion face : faces) {
+
+            if ((bestFace == null) || (face.getConfidence() > bestFace.getConfidence())) {
+
+                bestFace = face;
+            }
+        }
+
+        if (bestFace == null) {
+
+            return new FocalPoint(key, imageWidth, imageHeight, Float.NaN, Float.NaN, 0, 0);
+        }
+
+        final float width = imageWidth * scale;
+        final float height = imageHeight * scale;
+
+        return new FocalPoint(key, imageWidth, imageHeight, bestFace.getMidPointX() / width,
+                              bestFace.getMidPointY() / height,
+                              bestFace.getEyesDistance() / width, bestFace.getConfidence());
+    }
+
+    public float getConfidence() {
+
+        return mConfidence;
+    }
+
+    /**
+     * Returns the distance between the eyes as a fraction of the image width.
+     */
+    public float getEyesDistance() {
+
+        return mEyesDistance;
+    }
+
+    public int getImageHeight() {
+
+        return mImageHeight;
+    }
+
+    public int getImageWidth() {
+
+        return mImageWidth;
+    }
+
+    public long getKey() {
+
+        return mKey;
+    }
+
+    public float getX() {
+
+        return mX;
+    }
+
+    public float getY() {
+
+        return mY;
+    }
+
+    public boolean hasFace() {
+
+        return !Float.isNaN(mX) && !Float.isNaN(mY);
+    }
+
+    @Override
+    public String toString() {
+
+        return "FocalPoint{key=" + mKey + ", size=" + mImageWidth + "x" + mImageHeight + ", x="
+                + mX + ", y=" + mY + ", confidence=" + mConfidence + "}";
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary index of focal points, keyed by a 64-bit hash of the image identifier.
+ * <p/>
+ * The index starts with a header made of four big-endian integers: the magic number, the format
+ * version, the number of records and the record size. It is followed by fixed-size records sorted
+ * by key, each made of the key (long), the image width and height (int) and the focal point
+ * coordinates, eyes distance and confidence (float).
+ * <p/>
+ * The records are read in place from the underlying buffer, typically a memory-mapped file, so
+ * that a lookup by key is a binary search with no allocation, and the index takes almost no heap
+ * whatever its size. Instances are safe to be used by several threads at the same time.
+ */
+public class FocalPointIndex {
+
+    public static final int HEADER_SIZE = 16;
+
+    public static final int MAGIC = 0x4D534346;
+
+    public static final int RECORD_SIZE = 32;
+
+    public static final int VERSION = 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int OFFSET_CONFIDENCE = 28;
+
+    private static final int OFFSET_EYES_DISTANCE = 24;
+
+    private static final int OFFSET_IMAGE_HEIGHT = 12;
+
+    private static final int OFFSET_IMAGE_WIDTH = 8;
+
+    private static final int OFFSET_X = 16;
+
+    private static final int OFFSET_Y = 20;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Keeps the preload reads from being optimized away
+    private static volatile int sPreloadChecksum;
+
+    private final ByteBuffer mBuffer;
+
+    private final int mRecordSize;
+
+    private final int mSize;
+
+    /**
+     * Creates an index reading the records from the specified buffer, starting from its current
+     * position.
+     *
+     * @throws IOException if the buffer does not contain a valid index.
+     */
+    public FocalPointIndex(final ByteBuffer buffer) throws IOException {
+
+        final ByteBuffer indexBuffer = buffer.slice();
+
+        if ((indexBuffer.remaining() < HEADER_SIZE) || (indexBuffer.getInt(0) != MAGIC)) {
+
+            throw new IOException("not a focal point index");
+        }
+
+        final int version = indexBuffer.getInt(4);
+
+        if (version != VERSION) {
+
+            throw new IOException("unsupported focal point index version: " + version);
+        }
+
+        final int size = indexBuffer.getInt(8);
+        final int recordSize = indexBuffer.getInt(12);
+
+        // Larger records may be added by later versions, but they must start with the same fields
+        if ((size < 0) || (recordSize < RECORD_SIZE) || (indexBuffer.remaining()
+                < (HEADER_SIZE + ((long) size * recordSize)))) {
+
+            throw new IOException("corrupted focal point index");
+        }
+
+        mBuffer = indexBuffer;
+        mSize = size;
+        mRecordSize = recordSize;
+    }
+
+    /**
+     * Maps the specified index file into memory.
+     */
+    public static FocalPointIndex open(final File file) throws IOException {
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+
+            final FileChannel channel = randomAccessFile.getChannel();
+
+            // The mapping stays valid after the file is closed
+            return new FocalPointIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                                   channel.size()));
+
+        } finally {
+
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the key of the specified image identifier, that is the 64-bit FNV-1a hash of its
+     * UTF-8 encoding.
+     */
+    public static long getKey(final String imageId) {
+
+        long hash = FNV_OFFSET_BASIS;
+
+        for (final byte b : imageId.getBytes(UTF_8)) {
+
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the index of the record with the specified key, or -1 if not found.
+     */
+    public int find(final long key) {
+
+        int low = 0;
+        int high = mSize - 1;
+
+        while (low <= high) {
+
+            final int middle = (low + high) >>> 1;
+
+            final long middleKey = getKey(middle);
+
+            if (middleKey < key) {
+
+                low = middle + 1;
+
+            } else if (middleKey > key) {
+
+                high = middle - 1;
+
+            } else {
+
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    public float getConfidence(final int record) {
+
+        return mBuffer.getFloat(getOffset(record) + OFFSET_CONFIDENCE);
+    }
+
+    /**
+     * Returns the distance between the eyes as a fraction of the image width.
+     */
+    public float getEyesDistance(final int record) {
+
+        return mBuffer.getFloat(getOffset(record) + OFFSET_EYES_DISTANCE);
+    }
+
+    public FocalPoint getFocalPoint(final int record) {
+
+        return new FocalPoint(getKey(record), getImageWidth(record), getImageHeight(record),
+                              getX(record), getY(record), getEyesDistance(record),
+                              getConfidence(record));
+    }
+
+    public int getImageHeight(final int record) {
+
+        return mBuffer.getInt(getOffset(record) + OFFSET_IMAGE_HEIGHT);
+    }
+
+    public int getImageWidth(final int record) {
+
+        return mBuffer.getInt(getOffset(record) + OFFSET_IMAGE_WIDTH);
+    }
+
+    public long getKey(final int record) {
+
+        return mBuffer.getLong(getOffset(record));
+    }
+
+    /**
+     * Returns the horizontal position of the focal point as a fraction of the image width, or NaN
+     * if the image contains no face.
+     */
+    public float getX(final int record) {
+
+        return mBuffer.getFloat(getOffset(record) + OFFSET_X);
+    }
+
+    /**
+     * Returns the vertical position of the focal point as a fraction of the image height, or NaN
+     * if the image contains no face.
+     */
+    public float getY(final int record) {
+
+        return mBuffer.getFloat(getOffset(record) + OFFSET_Y);
+    }
+
+    public boolean hasFace(final int record) {
+
+        return !Float.isNaN(getX(record)) && !Float.isNaN(getY(record));
+    }
+
+    /**
+     * Reads one value from each page of the index, so that a memory-mapped file is loaded before
+     * the first lookups. It should be called from a background thread.
+     */
+    public void preload() {
+
+        final ByteBuffer buffer = mBuffer;
+
+        final int limit = HEADER_SIZE + (mSize * mRecordSize);
+
+        int checksum = 0;
+
+        for (int i = 0; i < limit; i += PAGE_SIZE) {
+
+            checksum += buffer.get(i);
+        }
+
+        sPreloadChecksum = checksum;
+    }
+
+    public int size() {
+
+        return mSize;
+    }
+
+    private int getOffset(final int record) {
+
+        if ((record < 0) || (record >= mSize)) {
+
+            throw new IndexOutOfBoundsException("invalid record: " + record);
+        }
+
+        return HEADER_SIZE + (record * mRecordSize);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects focal points, possibly from several threads, and writes them in the
+ * {@link FocalPointIndex} format.
+ * <p/>
+ * When the same key is added more than once, only the last focal point is kept.
+ */
+public class FocalPointIndexWriter {
+
+    private static final Comparator<FocalPoint> KEY_COMPARATOR = new Comparator<FocalPoint>() {
+
+        @Override
+        public int compare(final FocalPoint lhs, final FocalPoint rhs) {
+
+            final long lhsKey = lhs.getKey();
+            final long rhsKey = rhs.getKey();
+
+            return (lhsKey < rhsKey) ? -1 : ((lhsKey == rhsKey) ? 0 : 1);
+        }
+    };
+
+    private final ArrayList<FocalPoint> mFocalPoints = new ArrayList<FocalPoint>();
+
+    public synchronized void add(final FocalPoint focalPoint) {
+
+        mFocalPoints.add(focalPoint);
+    }
+
+    public synchronized int size() {
+
+        return mFocalPoints.size();
+    }
+
+    /**
+     * Writes the index to the specified stream, which is flushed but not closed.
+     */
+    public void write(final OutputStream outputStream) throws IOException {
+
+        final ArrayList<FocalPoint> focalPoints;
+
+        synchronized (this) {
+
+            focalPoints = new ArrayList<FocalPoint>(mFocalPoints);
+        }
+
+        // The sort is stable, so the last of the duplicated keys is the latest added one
+        Collections.sort(focalPoints, KEY_COMPARATOR);
+
+        final List<FocalPoint> records = new ArrayList<FocalPoint>(focalPoints.size());
+
+        final int size = focalPoints.size();
+
+        for (int i = 0; i < size; i++) {
+
+            final FocalPoint focalPoint = focalPoints.get(i);
+
+            if ((i == (size - 1)) || (focalPoints.get(i + 1).getKey() != focalPoint.getKey())) {
+
+                records.add(focalPoint);
+            }
+        }
+
+        final DataOutputStream dataOutputStream =
+                new DataOutputStream(new BufferedOutputStream(outputStream));
+
+        dataOutputStream.writeInt(FocalPointIndex.MAGIC);
+        dataOutputStream.writeInt(FocalPointIndex.VERSION);
+        dataOutputStream.writeInt(records.size());
+        dataOutputStream.writeInt(FocalPointIndex.RECORD_SIZE);
+
+        for (final FocalPoint focalPoint : records) {
+
+            dataOutputStream.writeLong(focalPoint.getKey());
+            dataOutputStream.writeInt(focalPoint.getImageWidth());
+            dataOutputStream.writeInt(focalPoint.getImageHeight());
+            dataOutputStream.writeFloat(focalPoint.getX());
+            dataOutputStream.writeFloat(focalPoint.getY());
+            dataOutputStream.writeFloat(focalPoint.getEyesDistance());
+            dataOutputStream.writeFloat(focalPoint.getConfidence());
+        }
+
+        dataOutputStream.flush();
+    }
+}
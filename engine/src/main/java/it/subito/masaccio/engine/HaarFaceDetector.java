@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pure Java face detector scanning a luminance image with Haar-like features evaluated on its
+ * integral image.
+ * <p/>
+ * Each window goes through a cascade of cheap tests (overall contrast, eyes darker than the
+ * forehead and the cheeks, nose bridge lighter than the eyes) and is rejected as soon as one of
+ * them fails; the surviving windows are scored adding the mouth contrast and the cheeks
+ * symmetry. The scales are scanned in parallel, by at most the configured number of threads, from
+ * the largest to the smallest, and all the scans stop as soon as a face with a confidence above
+ * the configured threshold is found.
+ */
+public class HaarFaceDetector {
+
+    private static final Comparator<FaceRegion> CONFIDENCE_COMPARATOR =
+            new Comparator<FaceRegion>() {
+
+                @Override
+                public int compare(final FaceRegion lhs, final FaceRegion rhs) {
+
+                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+                }
+            };
+
+    private static final Object sMutex = new Object();
+
+    private static ExecutorService sExecutor;
+
+    private final Config mConfig;
+
+    public HaarFaceDetector() {
+
+        this(new Config());
+    }
+
+    public HaarFaceDetector(final Config config) {
+
+        mConfig = config;
+    }
+
+    private static ExecutorService getExecutor() {
+
+        synchronized (sMutex) {
+
+            if (sExecutor == null) {
+
+                sExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                         new ScanThreadFactory());
+            }
+        }
+
+        return sExecutor;
+    }
+
+    /**
+     * Returns the detected faces sorted by decreasing confidence, or an empty list if none is
+     * found.
+     */
+    public List<FaceRegion> detect(final LuminanceImage image) {
+
+        return detect(new IntegralImage(image));
+    }
+
+    public List<FaceRegion> detect(final IntegralImage integralImage) {
+
+        final Config config = mConfig;
+
+        final int maxSize = Math.min(integralImage.getWidth(), integralImage.getHeight());
+
+        final ArrayList<Integer> sizes = new ArrayList<Integer>();
+
+        for (float size = config.getMinFaceSize(); size <= maxSize;
+             size *= config.getScaleFactor()) {
+
+            sizes.add(0, (int) size);
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        final ArrayList<FaceRegion> candidates = new ArrayList<FaceRegion>();
+
+        if ((config.getParallelism() <= 1) || (sizes.size() <= 1)) {
+
+            for (final Integer size : sizes) {
+
+                candidates.addAll(scan(integralImage, size, stop));
+            }
+
+        } else {
+
+            final int taskCount = Math.min(config.getParallelism(), sizes.size());
+
+            final ArrayList<Callable<List<FaceRegion>>> tasks =
+                    new ArrayList<Callable<List<FaceRegion>>>(taskCount);
+
+            for (int i = 0; i < taskCount; i++) {
+
+                final int firstIndex = i;
+
+                // Each task scans every n-th scale, so that the larger ones are spread among all
+                tasks.add(new Callable<List<FaceRegion>>() {
+
+                    @Override
+                    public List<FaceRegion> call() {
+
+                        final ArrayList<FaceRegion> regions = new ArrayList<FaceRegion>();
+
+                        for (int j = firstIndex; j < sizes.size(); j += taskCount) {
+
+                            regions.addAll(scan(integralImage, sizes.get(j), stop));
+                        }
+
+                        return regions;
+                    }
+                });
+            }
+
+            try {
+
+                for (final Future<List<FaceRegion>> future : getExecutor().invokeAll(tasks)) {
+
+                    candidates.addAll(future.get());
+                }
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            } catch (final ExecutionException e) {
+
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        return suppressOverlaps(candidates);
+    }
+
+    public Config getConfig() {
+
+        return mConfig;
+    }
+
+    /**
+     * Returns the confidence that the specified window contains a face, or a negative value if it
+     * is rejected.
+     */
+    float evaluate(final IntegralImage image, final int x, final int y, final int size) {
+
+        final Config config = mConfig;
+
+        final float deviation = image.getStandardDeviation(x, y, size, size);
+
+        if (deviation < config.getMinDeviation()) {
+
+            return -1;
+        }
+
+        final int bandWidth = (size * 7) / 10;
+        final int bandHeight = Math.max(1, size / 6);
+        final int bandX = x + ((size * 3) / 20);
+        final int eyesY = y + ((size * 3) / 10);
+
+        final float eyes = image.getMean(bandX, eyesY, bandWidth, bandHeight);
+        final float cheeks = image.getMean(bandX, y + ((size * 11) / 20), bandWidth, bandHeight);
+        final float forehead = image.getMean(bandX, y + (size / 10), bandWidth, bandHeight);
+
+        final float eyesContrast = (Math.min(cheeks, forehead) - eyes) / deviation;
+
+        if (eyesContrast < config.getMinFeatureContrast()) {
+
+            return -1;
+        }
+
+        final int eyeWidth = Math.max(1, size / 4);
+        final int bridgeWidth = Math.max(1, size / 6);
+
+        final float leftEye = image.getMean(x + ((size * 3) / 20), eyesY, eyeWidth, bandHeight);
+        final float rightEye = image.getMean(x + ((size * 3) / 5), eyesY, eyeWidth, bandHeight);
+        final float bridge = image.getMean(x + ((size * 5) / 12), eyesY, bridgeWidth, bandHeight);
+
+        final float bridgeContrast = (bridge - Math.max(leftEye, rightEye)) / deviation;
+
+        if (bridgeContrast < config.getMinFeatureContrast()) {
+
+            return -1;
+        }
+
+        final float leftCheek =
+                image.getMean(x + ((size * 3) / 20), y + ((size * 11) / 20), eyeWidth, bandHeight);
+        final float rightCheek =
+                image.getMean(x + ((size * 3) / 5), y + ((size * 11) / 20), eyeWidth, bandHeight);
+
+        final float cheeksContrast =
+                (Math.min(leftCheek - leftEye, rightCheek - rightEye)) / deviation;
+
+        if (cheeksContrast < config.getMinFeatureContrast()) {
+
+            return -1;
+        }
+
+        final float mouth = image.getMean(x + ((size * 3) / 10), y + ((size * 3) / 4),
+                                          Math.max(1, (size * 2) / 5), Math.max(1, size / 10));
+
+        final float mouthContrast = (cheeks - mouth) / deviation;
+
+        final float asymmetry = Math.abs(leftCheek - rightCheek) / deviation;
+
+        // The weakest of the eye features dominates, the mouth and the symmetry only adjust it
+        final float eyesScore = Math.min(eyesContrast, Math.min(bridgeContrast, cheeksContrast));
+        final float score = eyesScore + ((Math.max(0, mouthContrast) - asymmetry) / 2);
+
+        if (score <= 0) {
+
+            return -1;
+        }
+
+        return score / (1 + score);
+    }
+
+    private List<FaceRegion> scan(final IntegralImage image, final int size,
+            final AtomicBoolean stop) {
+
+        final Config config = mConfig;
+
+        final ArrayList<FaceRegion> regions = new ArrayList<FaceRegion>();
+
+        final int step = Math.max(1, (int) (size * config.getStepRatio()));
+        final int maxX = image.getWidth() - size;
+        final int maxY = image.getHeight() - size;
+
+        final float minConfidence = config.getMinConfidence();
+        final float earlyStopConfidence = config.getEarlyStopConfidence();
+
+        for (int y = 0; y <= maxY; y += step) {
+
+            if (stop.get()) {
+
+                break;
+            }
+
+            for (int x = 0; x <= maxX; x += step) {
+
+                final float confidence = evaluate(image, x, y, size);
+
+                if (confidence >= minConfidence) {
+
+                    regions.add(new FaceRegion(x, y, size, confidence));
+
+                    if (confidence >= earlyStopConfidence) {
+
+                        stop.set(true);
+                    }
+                }
+            }
+        }
+
+        return regions;
+    }
+
+    private List<FaceRegion> suppressOverlaps(final List<FaceRegion> candidates) {
+
+        Collections.sort(candidates, CONFIDENCE_COMPARATOR);
+
+        final int maxFaces = mConfig.getMaxFaces();
+        final float maxOverlap = mConfig.getMaxOverlap();
+
+        final ArrayList<FaceRegion> faces = new ArrayList<FaceRegion>(maxFaces);
+
+        for (final FaceRegion candidate : candidates) {
+
+            boolean overlapping = false;
+
+            for (final FaceRegion face : faces) {
+
+                if (face.overlap(candidate) > maxOverlap) {
+
+                    overlapping = true;
+
+                    break;
+                }
+            }
+
+            if (!overlapping) {
+
+                faces.add(candidate);
+
+                if (faces.size() >= maxFaces) {
+
+                    break;
+                }
+            }
+        }
+
+        return faces;
+    }
+
+    private static class ScanThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, "Masaccio-Scan");
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+    /**
+     * Tuning parameters of the detector.
+     */
+    public static class Config {
+
+        private float mEarlyStopConfidence = 0.75f;
+
+        private int mMaxFaces = 4;
+
+        private float mMaxOverlap = 0.3f;
+
+        private float mMinConfidence = 0.4f;
+
+        private float mMinDeviation = 12;
+
+        private int mMinFaceSize = 24;
+
+        private float mMinFeatureContrast = 0.15f;
+
+        private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+        private float mScaleFactor = 1.25f;
+
+        private float mStepRatio = 0.08f;
+
+        public float getEarlyStopConfidence() {
+
+            return mEarlyStopConfidence;
+        }
+
+        public void setEarlyStopConfidence(final float confidence) {
+
+            mEarlyStopConfidence = confidence;
+        }
+
+        public int getMaxFaces() {
+
+            return mMaxFaces;
+        }
+
+        public void setMaxFaces(final int maxFaces) {
+
+            mMaxFaces = maxFaces;
+        }
+
+        public float getMaxOverlap() {
+
+            return mMaxOverlap;
+        }
+
+        public void setMaxOverlap(final float maxOverlap) {
+
+            mMaxOverlap = maxOverlap;
+        }
+
+        public float getMinConfidence() {
+
+            return mMinConfidence;
+        }
+
+        public void setMinConfidence(final float confidence) {
+
+            mMinConfidence = confidence;
+        }
+
+        public float getMinDeviation() {
+
+            return mMinDeviation;
+        }
+
+        public void setMinDeviation(final float deviation) {
+
+            mMinDeviation = deviation;
+        }
+
+        public int getMinFaceSize() {
+
+            return mMinFaceSize;
+        }
+
+        public void setMinFaceSize(final int size) {
+
+            if (size <= 0) {
+
+                throw new IllegalArgumentException("invalid minimum face size: " + size);
+            }
+
+            mMinFaceSize = size;
+        }
+
+        public float getMinFeatureContrast() {
+
+            return mMinFeatureContrast;
+        }
+
+        public void setMinFeatureContrast(final float contrast) {
+
+            mMinFeatureContrast = contrast;
+        }
+
+        /**
+         * Returns the maximum number of threads scanning the scales of an image.
+         */
+        public int getParallelism() {
+
+            return mParallelism;
+        }
+
+        public void setParallelism(final int parallelism) {
+
+            if (parallelism <= 0) {
+
+                throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+            }
+
+            mParallelism = parallelism;
+        }
+
+        public float getScaleFactor() {
+
+            return mScaleFactor;
+        }
+
+        public void setScaleFactor(final float scaleFactor) {
+
+            // Any factor not greater than 1 would never reach the larger scales
+            if (!(scaleFactor > 1)) {
+
+                throw new IllegalArgumentException("invalid scale factor: " + scaleFactor);
+            }
+
+            mScaleFactor = scaleFactor;
+        }
+
+        public float getStepRatio() {
+
+            return mStepRatio;
+        }
+
+        public void setStepRatio(final float stepRatio) {
+
+            mStepRatio = stepRatio;
+        }
+    }
+}
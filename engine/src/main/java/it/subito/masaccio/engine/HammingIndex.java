@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded index of values keyed by 64-bit hashes, retrieving the one whose hash is the nearest to
+ * the requested one, within a maximum Hamming distance.
+ * <p/>
+ * Each hash is split into 8 bands of 8 bits: two hashes differing in less than 8 bits share at
+ * least one band, so only the entries sharing a band with the requested hash are compared. The
+ * least recently used entries are evicted once the maximum size is reached.
+ */
+public class HammingIndex<V> {
+
+    private static final int BAND_BITS = 8;
+
+    private static final int BAND_COUNT = Long.SIZE / BAND_BITS;
+
+    private static final int BAND_MASK = (1 << BAND_BITS) - 1;
+
+    private final HashMap<Integer, ArrayList<Long>> mBands =
+            new HashMap<Integer, ArrayList<Long>>();
+
+    private final LinkedHashMap<Long, V> mEntries;
+
+    private final int mMaxDistance;
+
+    public HammingIndex(final int maxEntries, final int maxDistance) {
+
+        if ((maxDistance < 0) || (maxDistance >= BAND_COUNT)) {
+
+            throw new IllegalArgumentException("invalid maximum distance: " + maxDistance);
+        }
+
+        mMaxDistance = maxDistance;
+        mEntries = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, V> eldest) {
+
+                if (size() > maxEntries) {
+
+                    unindex(eldest.getKey());
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    private static int getBandKey(final long hash, final int band) {
+
+        return (band << BAND_BITS) | (int) ((hash >>> (band * BAND_BITS)) & BAND_MASK);
+    }
+
+    public synchronized void clear() {
+
+        mEntries.clear();
+        mBands.clear();
+    }
+
+    /**
+     * Returns the value whose hash is the nearest to the specified one, or null if none is within
+     * the maximum distance.
+     */
+    public synchronized V get(final long hash) {
+
+        final V exact = mEntries.get(hash);
+
+        if ((exact != null) || (mMaxDistance == 0)) {
+
+            return exact;
+        }
+
+        long nearest = 0;
+        int nearestDistance = mMaxDistance + 1;
+
+        for (int i = 0; i < BAND_COUNT; i++) {
+
+            final ArrayList<Long> hashes = mBands.get(getBandKey(hash, i));
+
+            if (hashes == null) {
+
+                continue;
+            }
+
+            for (final Long candidate : hashes) {
+
+                final int distance = PerceptualHash.distance(hash, candidate);
+
+                if (distance < nearestDistance) {
+
+                    nearest = candidate;
+                    nearestDistance = distance;
+                }
+            }
+        }
+
+        if (nearestDistance > mMaxDistance) {
+
+            return null;
+        }
+
+        return mEntries.get(nearest);
+    }
+
+    public synchronized void put(final long hash, final V value) {
+
+        if (mEntries.put(hash, value) != null) {
+
+            return;
+        }
+
+        for (int i = 0; i < BAND_COUNT; i++) {
+
+            final int key = getBandKey(hash, i);
+
+            ArrayList<Long> hashes = mBands.get(key);
+
+            if (hashes == null) {
+
+                hashes = new ArrayList<Long>(1);
+                mBands.put(key, hashes);
+            }
+
+            hashes.add(hash);
+        }
+    }
+
+    public synchronized int size() {
+
+        return mEntries.size();
+    }
+
+    /**
+     * Evicts the least recently used entries, so that only the specified ratio of them is kept.
+     */
+    public synchronized void trim(final float keepRatio) {
+
+        final int maxSize = (int) (mEntries.size() * keepRatio);
+
+        final Iterator<Long> iterator = mEntries.keySet().iterator();
+
+        while ((mEntries.size() > maxSize) && iterator.hasNext()) {
+
+            unindex(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void unindex(final long hash) {
+
+        for (int i = 0; i < BAND_COUNT; i++) {
+
+            final int key = getBandKey(hash, i);
+
+            final ArrayList<Long> hashes = mBands.get(key);
+
+            if (hashes != null) {
+
+                hashes.remove(Long.valueOf(hash));
+
+                if (hashes.isEmpty()) {
+
+                    mBands.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+/**
+ * Summed area tables of a luminance image, allowing the sum and the variance of the pixels in any
+ * rectangle to be computed in constant time.
+ */
+public class IntegralImage {
+
+    private final int mHeight;
+
+    private final long[] mSquaredSums;
+
+    private final int mStride;
+
+    private final int[] mSums;
+
+    private final int mWidth;
+
+    public IntegralImage(final LuminanceImage image) {
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int stride = width + 1;
+
+        final byte[] data = image.getData();
+        final int[] sums = new int[stride * (height + 1)];
+        final long[] squaredSums = new long[sums.length];
+
+        for (int y = 0; y < height; y++) {
+
+            int rowSum = 0;
+            long rowSquaredSum = 0;
+
+            final int rowOffset = y * width;
+            final int index = (y + 1) * stride;
+
+            for (int x = 0; x < width; x++) {
+
+                final int value = data[rowOffset + x] & 0xff;
+
+                rowSum += value;
+                rowSquaredSum += value * value;
+
+                sums[index + x + 1] = sums[index - stride + x + 1] + rowSum;
+                squaredSums[index + x + 1] = squaredSums[index - stride + x + 1] + rowSquaredSum;
+            }
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mStride = stride;
+        mSums = sums;
+        mSquaredSums = squaredSums;
+    }
+
+    public int getHeight() {
+
+        return mHeight;
+    }
+
+    /**
+     * Returns the mean value of the pixels in the specified rectangle.
+     */
+    public float getMean(final int x, final int y, final int width, final int height) {
+
+        return (float) getSum(x, y, width, height) / (width * height);
+    }
+
+    /**
+     * Returns the standard deviation of the pixels in the specified rectangle.
+     */
+    public float getStandardDeviation(final int x, final int y, final int width,
+            final int height) {
+
+        final int area = width * height;
+
+        final double mean = (double) getSum(x, y, width, height) / area;
+        final double variance =
+                ((double) getSquaredSum(x, y, width, height) / area) - (mean * mean);
+
+        return (variance > 0) ? (float) Math.sqrt(variance) : 0;
+    }
+
+    public long getSquaredSum(final int x, final int y, final int width, final int height) {
+
+        final long[] squaredSums = mSquaredSums;
+        final int stride = mStride;
+
+        final int topLeft = (y * stride) + x;
+        final int bottomLeft = ((y + height) * stride) + x;
+
+        return squaredSums[bottomLeft + width] - squaredSums[bottomLeft] - squaredSums[topLeft
+                + width] + squaredSums[topLeft];
+    }
+
+    public int getSum(final int x, final int y, final int width, final int height) {
+
+        final int[] sums = mSums;
+        final int stride = mStride;
+
+        final int topLeft = (y * stride) + x;
+        final int bottomLeft = ((y + height) * stride) + x;
+
+        return sums[bottomLeft + width] - sums[bottomLeft] - sums[topLeft + width] + sums[topLeft];
+    }
+
+    public int getWidth() {
+
+        return mWidth;
+    }
+}
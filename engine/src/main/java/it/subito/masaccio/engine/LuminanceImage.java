@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+/**
+ * 8-bit luminance buffer of an image, stored row by row.
+ */
+public class LuminanceImage {
+
+    private final byte[] mData;
+
+    private final int mHeight;
+
+    private final int mWidth;
+
+    public LuminanceImage(final int width, final int height) {
+
+        this(width, height, new byte[width * height]);
+    }
+
+    public LuminanceImage(final int width, final int height, final byte[] data) {
+
+        if ((width <= 0) || (height <= 0) || (data.length < (width * height))) {
+
+            throw new IllegalArgumentException(
+                    "invalid image size: " + width + "x" + height + " (" + data.length
+                            + " bytes)");
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mData = data;
+    }
+
+    /**
+     * Creates the luminance buffer of the specified ARGB pixels.
+     */
+    public static LuminanceImage fromArgb(final int[] pixels, final int width, final int height) {
+
+        final byte[] data = new byte[width * height];
+
+        for (int i = 0; i < data.length; i++) {
+
+            data[i] = (byte) getLuminance(pixels[i]);
+        }
+
+        return new LuminanceImage(width, height, data);
+    }
+
+    /**
+     * Returns the luminance, in the [0, 255] range, of the specified ARGB color.
+     */
+    public static int getLuminance(final int argb) {
+
+        final int r = (argb >> 16) & 0xff;
+        final int g = (argb >> 8) & 0xff;
+        final int b = argb & 0xff;
+
+        return ((r * 77) + (g * 150) + (b * 29)) >> 8;
+    }
+
+    public byte[] getData() {
+
+        return mData;
+    }
+
+    public int getHeight() {
+
+        return mHeight;
+    }
+
+    public int getPixel(final int x, final int y) {
+
+        return mData[(y * mWidth) + x] & 0xff;
+    }
+
+    public int getWidth() {
+
+        return mWidth;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+/**
+ * 64-bit difference hash of an image, which changes little when the image is resized or
+ * re-encoded, so that near-duplicate images can be found by comparing the Hamming distance of
+ * their hashes.
+ * <p/>
+ * The image is reduced to a 9x8 grid of average luminances, and each bit tells whether a cell is
+ * brighter than the one at its right. The images with little texture, like flat or smoothly
+ * shaded ones, all get about the same hash, so their hashes cannot tell them apart.
+ */
+public class PerceptualHash {
+
+    private static final int GRID_HEIGHT = 8;
+
+    private static final int GRID_WIDTH = 9;
+
+    private static final int HASH_BITS = 64;
+
+    // Minimum mean luminance difference between adjacent cells of a distinctive image
+    private static final float MIN_MEAN_DIFFERENCE = 4;
+
+    // Minimum number of both the set and the cleared bits of a distinctive hash
+    private static final int MIN_BALANCE_BITS = 8;
+
+    private PerceptualHash() {
+
+    }
+
+    public static long compute(final LuminanceImage image) {
+
+        final float[] cells = getCells(image);
+
+        long hash = 0;
+
+        for (int cy = 0; cy < GRID_HEIGHT; cy++) {
+
+            final int offset = cy * GRID_WIDTH;
+
+            for (int cx = 0; cx < (GRID_WIDTH - 1); cx++) {
+
+                hash <<= 1;
+
+                if (cells[offset + cx] > cells[offset + cx + 1]) {
+
+                    hash |= 1;
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the number of bits the two hashes differ in.
+     */
+    public static int distance(final long lhs, final long rhs) {
+
+        return Long.bitCount(lhs ^ rhs);
+    }
+
+    /**
+     * Returns whether the image has enough texture for its hash to identify its near-duplicates,
+     * that is whether its adjacent cells differ enough on average, and its hash has enough set
+     * and cleared bits.
+     */
+    public static boolean isDistinctive(final LuminanceImage image) {
+
+        final float[] cells = getCells(image);
+
+        float differenceSum = 0;
+
+        int setBits = 0;
+
+        for (int cy = 0; cy < GRID_HEIGHT; cy++) {
+
+            final int offset = cy * GRID_WIDTH;
+
+            for (int cx = 0; cx < (GRID_WIDTH - 1); cx++) {
+
+                final float difference = cells[offset + cx] - cells[offset + cx + 1];
+
+                differenceSum += Math.abs(difference);
+
+                if (difference > 0) {
+
+                    setBits++;
+                }
+            }
+        }
+
+        return ((differenceSum / HASH_BITS) >= MIN_MEAN_DIFFERENCE) && (setBits
+                >= MIN_BALANCE_BITS) && (setBits <= (HASH_BITS - MIN_BALANCE_BITS));
+    }
+
+    private static float[] getCells(final LuminanceImage image) {
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        final byte[] data = image.getData();
+
+        final float[] cells = new float[GRID_WIDTH * GRID_HEIGHT];
+
+        for (int cy = 0; cy < GRID_HEIGHT; cy++) {
+
+            final int top = (cy * height) / GRID_HEIGHT;
+            final int bottom = Math.max(top + 1, ((cy + 1) * height) / GRID_HEIGHT);
+
+            for (int cx = 0; cx < GRID_WIDTH; cx++) {
+
+                final int left = (cx * width) / GRID_WIDTH;
+                final int right = Math.max(left + 1, ((cx + 1) * width) / GRID_WIDTH);
+
+                int sum = 0;
+
+                for (int y = top; y < bottom; y++) {
+
+                    final int offset = y * width;
+
+                    for (int x = left; x < right; x++) {
+
+                        sum += data[offset + x] & 0xff;
+                    }
+                }
+
+                cells[(cy * GRID_WIDTH) + cx] = (float) sum / ((bottom - top) * (right - left));
+            }
+        }
+
+        return cells;
+    }
+}
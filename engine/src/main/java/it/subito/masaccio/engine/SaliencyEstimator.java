@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+/**
+ * Estimates the most salient point of an image, as the centroid of its gradient energy, slightly
+ * biased toward the center.
+ * <p/>
+ * It is much cheaper than a face detection, and can be used as a fallback to center the crop on
+ * the image details when no face detection can be afforded.
+ */
+public class SaliencyEstimator {
+
+    private static final float CENTER_BIAS = 0.5f;
+
+    private static final float MIN_MEAN_GRADIENT = 2;
+
+    // Spread of the energy uniformly distributed over the image
+    private static final double UNIFORM_SPREAD = Math.sqrt(1 / 6d);
+
+    /**
+     * Returns the salient point of the image, whose confidence measures how much the gradient
+     * energy is concentrated around it, or a focal point with undefined coordinates if the image
+     * has no detail.
+     */
+    public FocalPoint estimate(final LuminanceImage image) {
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        if ((width < 3) || (height < 3)) {
+
+            return new FocalPoint(0, width, height, Float.NaN, Float.NaN, 0, 0);
+        }
+
+        final byte[] data = image.getData();
+
+        final float centerX = (width - 1) / 2f;
+        final float centerY = (height - 1) / 2f;
+
+        double sum = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+        double gradientSum = 0;
+
+        for (int y = 1; y < (height - 1); y++) {
+
+            final int row = y * width;
+
+            final float dy = (y - centerY) / centerY;
+
+            for (int x = 1; x < (width - 1); x++) {
+
+                final int offset = row + x;
+
+                final int gradient =
+                        Math.abs((data[offset + 1] & 0xff) - (data[offset - 1] & 0xff)) + Math.abs(
+                                (data[offset + width] & 0xff) - (data[offset - width] & 0xff));
+
+                final float dx = (x - centerX) / centerX;
+
+                final double bias = 1 - ((CENTER_BIAS * ((dx * dx) + (dy * dy))) / 2);
+
+                final double energy = gradient * bias;
+
+                gradientSum += gradient;
+
+                sum += energy;
+                sumX += energy * x;
+                sumY += energy * y;
+                sumXX += energy * x * x;
+                sumYY += energy * y * y;
+            }
+        }
+
+        if ((gradientSum / ((width - 2) * (height - 2))) < MIN_MEAN_GRADIENT) {
+
+            return new FocalPoint(0, width, height, Float.NaN, Float.NaN, 0, 0);
+        }
+
+        final double meanX = sumX / sum;
+        final double meanY = sumY / sum;
+
+        final double varianceX = Math.max(0, (sumXX / sum) - (meanX * meanX)) / (width * width);
+        final double varianceY = Math.max(0, (sumYY / sum) - (meanY * meanY)) / (height * height);
+
+        final double spread = Math.sqrt(varianceX + varianceY);
+
+        final float confidence = (float) Math.min(1, Math.max(0, 1 - (spread / UNIFORM_SPREAD)));
+
+        return new FocalPoint(0, width, height, (float) (meanX / width), (float) (meanY / height),
+                              0, confidence);
+    }
+}
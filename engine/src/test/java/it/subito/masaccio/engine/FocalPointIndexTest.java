@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FocalPointIndexTest {
+
+    private static FocalPointIndex write(final FocalPointIndexWriter writer) throws IOException {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        writer.write(outputStream);
+
+        return new FocalPointIndex(ByteBuffer.wrap(outputStream.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidIndex() throws IOException {
+
+        new FocalPointIndex(ByteBuffer.wrap(new byte[FocalPointIndex.HEADER_SIZE]));
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+
+        final FocalPointIndexWriter writer = new FocalPointIndexWriter();
+
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+
+            final long key = FocalPointIndex.getKey("image-" + i);
+
+            writer.add(new FocalPoint(key, 640, 480, random.nextFloat(), random.nextFloat(),
+                                      0.1f, 0.5f));
+            writer.add(new FocalPoint(key, 640, 480, i / 1000f, 0.25f, 0.1f, 0.9f));
+        }
+
+        writer.add(new FocalPoint(FocalPointIndex.getKey("no-face"), 320, 240, Float.NaN,
+                                  Float.NaN, 0, 0));
+
+        final FocalPointIndex index = write(writer);
+
+        assertEquals(1001, index.size());
+
+        for (int i = 0; i < 1000; i++) {
+
+            final int record = index.find(FocalPointIndex.getKey("image-" + i));
+
+            assertTrue(record >= 0);
+            assertTrue(index.hasFace(record));
+            assertEquals(640, index.getImageWidth(record));
+            assertEquals(480, index.getImageHeight(record));
+            assertEquals(i / 1000f, index.getX(record), 0);
+            assertEquals(0.9f, index.getConfidence(record), 0);
+        }
+
+        final int record = index.find(FocalPointIndex.getKey("no-face"));
+
+        assertTrue(record >= 0);
+        assertFalse(index.hasFace(record));
+        assertEquals(-1, index.find(FocalPointIndex.getKey("missing")));
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HaarFaceDetectorTest {
+
+    private static void fill(final LuminanceImage image, final int x, final int y, final int width,
+            final int height, final int value) {
+
+        final byte[] data = image.getData();
+
+        for (int j = y; j < (y + height); j++) {
+
+            for (int i = x; i < (x + width); i++) {
+
+                data[(j * image.getWidth()) + i] = (byte) value;
+            }
+        }
+    }
+
+    private static LuminanceImage drawFace(final int x, final int y, final int size) {
+
+        final LuminanceImage image = new LuminanceImage(200, 150);
+
+        fill(image, 0, 0, 200, 150, 60);
+
+        // Skin, eyes and mouth
+        fill(image, x, y, size, size, 190);
+        fill(image, x + ((size * 3) / 20), y + ((size * 3) / 10), size / 4, size / 6, 40);
+        fill(image, x + ((size * 3) / 5), y + ((size * 3) / 10), size / 4, size / 6, 40);
+        fill(image, x + ((size * 3) / 10), y + ((size * 3) / 4), (size * 2) / 5, size / 10, 90);
+
+        return image;
+    }
+
+    @Test
+    public void testEmptyImage() {
+
+        final LuminanceImage image = new LuminanceImage(120, 90);
+
+        fill(image, 0, 0, 120, 90, 128);
+
+        assertTrue(new HaarFaceDetector().detect(image).isEmpty());
+    }
+
+    @Test
+    public void testFaceDetection() {
+
+        final List<FaceRegion> faces = new HaarFaceDetector().detect(drawFace(70, 40, 60));
+
+        assertFalse(faces.isEmpty());
+
+        final FaceRegion face = faces.get(0);
+
+        assertEquals(100, face.getMidPointX(), 6);
+        assertEquals(61, face.getMidPointY(), 6);
+    }
+
+    @Test
+    public void testIntegralImage() {
+
+        final Random random = new Random(42);
+
+        final LuminanceImage image = new LuminanceImage(37, 23);
+
+        random.nextBytes(image.getData());
+
+        final IntegralImage integralImage = new IntegralImage(image);
+
+        for (int i = 0; i < 100; i++) {
+
+            final int x = random.nextInt(36);
+            final int y = random.nextInt(22);
+            final int width = 1 + random.nextInt(37 - x);
+            final int height = 1 + random.nextInt(23 - y);
+
+            int sum = 0;
+            long squaredSum = 0;
+
+            for (int j = y; j < (y + height); j++) {
+
+                for (int k = x; k < (x + width); k++) {
+
+                    final int value = image.getPixel(k, j);
+
+                    sum += value;
+                    squaredSum += value * value;
+                }
+            }
+
+            assertEquals(sum, integralImage.getSum(x, y, width, height));
+            assertEquals(squaredSum, integralImage.getSquaredSum(x, y, width, height));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidScaleFactor() {
+
+        new HaarFaceDetector.Config().setScaleFactor(1);
+    }
+
+    @Test
+    public void testParallelScan() {
+
+        final LuminanceImage image = drawFace(30, 50, 72);
+
+        final HaarFaceDetector.Config config = new HaarFaceDetector.Config();
+        config.setParallelism(1);
+        config.setEarlyStopConfidence(2);
+
+        final List<FaceRegion> sequential = new HaarFaceDetector(config).detect(image);
+
+        config.setParallelism(4);
+
+        final List<FaceRegion> parallel = new HaarFaceDetector(config).detect(image);
+
+        assertEquals(sequential.size(), parallel.size());
+
+        for (int i = 0; i < sequential.size(); i++) {
+
+            assertEquals(sequential.get(i).getX(), parallel.get(i).getX());
+            assertEquals(sequential.get(i).getY(), parallel.get(i).getY());
+            assertEquals(sequential.get(i).getSize(), parallel.get(i).getSize());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HammingIndexTest {
+
+    @Test
+    public void testEviction() {
+
+        final HammingIndex<String> index = new HammingIndex<String>(2, 3);
+
+        index.put(0x1L, "first");
+        index.put(0xff00L, "second");
+        index.put(0xff0000L, "third");
+
+        assertEquals(2, index.size());
+        assertNull(index.get(0x1L));
+        assertEquals("third", index.get(0xff0000L));
+
+        index.trim(0.5f);
+
+        assertEquals(1, index.size());
+        assertNull(index.get(0xff00L));
+        assertEquals("third", index.get(0xff0001L));
+    }
+
+    @Test
+    public void testNearestLookup() {
+
+        final HammingIndex<String> index = new HammingIndex<String>(16, 4);
+
+        index.put(0x0f0f0f0f0f0f0f0fL, "near");
+        index.put(0xf0f0f0f0f0f0f0f0L, "far");
+
+        assertEquals("near", index.get(0x0f0f0f0f0f0f0f0fL));
+        assertEquals("near", index.get(0x0f0f0f0f0f0f0f0fL ^ 0x0101000000000001L));
+        assertEquals("far", index.get(0xf0f0f0f0f0f0f0f0L ^ 0x8000000000000010L));
+        assertNull(index.get(0x0f0f0f0f0f0f0f0fL ^ 0x1111100000000000L));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerceptualHashTest {
+
+    private static LuminanceImage createGradient(final int width, final int height,
+            final int offset) {
+
+        final LuminanceImage image = new LuminanceImage(width, height);
+
+        final byte[] data = image.getData();
+
+        for (int y = 0; y < height; y++) {
+
+            for (int x = 0; x < width; x++) {
+
+                // Horizontal waves, whose phase depends on the row band
+                final double phase = (x * 4 * Math.PI) / width + ((y * 4) / height);
+
+                data[(y * width) + x] = (byte) (128 + (100 * Math.sin(phase)) + offset);
+            }
+        }
+
+        return image;
+    }
+
+    @Test
+    public void testDifferentImages() {
+
+        final LuminanceImage image = createGradient(180, 160, 0);
+
+        final LuminanceImage flipped = new LuminanceImage(180, 160);
+
+        final byte[] data = image.getData();
+        final byte[] flippedData = flipped.getData();
+
+        for (int y = 0; y < 160; y++) {
+
+            for (int x = 0; x < 180; x++) {
+
+                flippedData[(y * 180) + x] = data[(y * 180) + (179 - x)];
+            }
+        }
+
+        assertTrue(PerceptualHash.distance(PerceptualHash.compute(image),
+                                           PerceptualHash.compute(flipped)) > 16);
+    }
+
+    @Test
+    public void testFlatImage() {
+
+        final LuminanceImage image = new LuminanceImage(180, 160);
+
+        final byte[] data = image.getData();
+
+        for (int i = 0; i < data.length; i++) {
+
+            // Slight noise over a uniform gray
+            data[i] = (byte) (128 + (i % 3));
+        }
+
+        assertFalse(PerceptualHash.isDistinctive(image));
+        assertTrue(PerceptualHash.isDistinctive(createGradient(180, 160, 0)));
+    }
+
+    @Test
+    public void testResizedImage() {
+
+        final long hash = PerceptualHash.compute(createGradient(180, 160, 0));
+
+        assertTrue(PerceptualHash.distance(hash,
+                                           PerceptualHash.compute(createGradient(90, 80, 0)))
+                           <= 4);
+        assertTrue(PerceptualHash.distance(hash,
+                                           PerceptualHash.compute(createGradient(180, 160, 10)))
+                           <= 4);
+    }
+}
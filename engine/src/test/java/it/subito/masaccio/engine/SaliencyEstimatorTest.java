@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SaliencyEstimatorTest {
+
+    @Test
+    public void testFlatImage() {
+
+        final LuminanceImage image = new LuminanceImage(64, 48);
+
+        assertFalse(new SaliencyEstimator().estimate(image).hasFace());
+    }
+
+    @Test
+    public void testSalientPoint() {
+
+        final LuminanceImage image = new LuminanceImage(64, 48);
+
+        final byte[] data = image.getData();
+
+        // Checkerboard patch around (48, 12)
+        for (int y = 6; y < 18; y++) {
+
+            for (int x = 42; x < 54; x++) {
+
+                data[(y * 64) + x] = (byte) ((((x + y) & 1) == 0) ? 255 : 0);
+            }
+        }
+
+        final FocalPoint focalPoint = new SaliencyEstimator().estimate(image);
+
+        assertTrue(focalPoint.hasFace());
+        assertEquals(48f / 64, focalPoint.getX(), 0.05f);
+        assertEquals(12f / 48, focalPoint.getY(), 0.05f);
+        assertTrue(focalPoint.getConfidence() > 0.5f);
+    }
+}
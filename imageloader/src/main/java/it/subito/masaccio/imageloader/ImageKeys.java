@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.imageloader;
+
+/**
+ * Utility methods for the keys of the loader requests.
+ */
+class ImageKeys {
+
+    private static final char SIZE_SEPARATOR = 'x';
+
+    private static final char URI_SEPARATOR = '_';
+
+    private ImageKeys() {
+
+    }
+
+    /**
+     * Returns the key identifying the image whatever its decoded size, by removing the target
+     * size appended by the loader to the image URI, as in {@code <uri>_<width>x<height>}.
+     */
+    static String getLogicalKey(final String requestKey) {
+
+        if (requestKey == null) {
+
+            return null;
+        }
+
+        final int uriEnd = requestKey.lastIndexOf(URI_SEPARATOR);
+
+        if ((uriEnd < 0) || !isSize(requestKey, uriEnd + 1)) {
+
+            return requestKey;
+        }
+
+        return requestKey.substring(0, uriEnd);
+    }
+
+    private static boolean isSize(final String key, final int start) {
+
+        final int separator = key.indexOf(SIZE_SEPARATOR, start);
+
+        return (separator > start) && isNumber(key, start, separator) && isNumber(key, separator
+                + 1, key.length());
+    }
+
+    private static boolean isNumber(final String key, final int start, final int end) {
+
+        if (start >= end) {
+
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+
+            if (!Character.isDigit(key.charAt(i))) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
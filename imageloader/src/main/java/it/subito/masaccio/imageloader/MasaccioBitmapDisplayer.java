@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.imageloader;
+
+import android.graphics.Bitmap;
+import android.view.View;
+
+import com.nostra13.universalimageloader.core.ImageLoader;
+import com.nostra13.universalimageloader.core.assist.LoadedFrom;
+import com.nostra13.universalimageloader.core.display.BitmapDisplayer;
+import com.nostra13.universalimageloader.core.display.SimpleBitmapDisplayer;
+import com.nostra13.universalimageloader.core.imageaware.ImageAware;
+
+import it.subito.masaccio.MasaccioImageView;
+
+/**
+ * Bitmap displayer binding the image URI, without the target size appended by the loader, to
+ * the {@link MasaccioImageView}s, before delegating the actual display, so that the views pick up
+ * the faces detected by the {@link MasaccioImageDecoder}, whatever the bitmap instance and size.
+ */
+public class MasaccioBitmapDisplayer implements BitmapDisplayer {
+
+    private final BitmapDisplayer mDisplayer;
+
+    private final ImageLoader mImageLoader;
+
+    public MasaccioBitmapDisplayer() {
+
+        this(new SimpleBitmapDisplayer());
+    }
+
+    public MasaccioBitmapDisplayer(final BitmapDisplayer displayer) {
+
+        this(ImageLoader.getInstance(), displayer);
+    }
+
+    public MasaccioBitmapDisplayer(final ImageLoader imageLoader,
+            final BitmapDisplayer displayer) {
+
+        if ((imageLoader == null) || (displayer == null)) {
+
+            throw new IllegalArgumentException("the loader and the displayer cannot be null");
+        }
+
+        mImageLoader = imageLoader;
+        mDisplayer = displayer;
+    }
+
+    @Override
+    public void display(final Bitmap bitmap, final ImageAware imageAware,
+            final LoadedFrom loadedFrom) {
+
+        final View view = imageAware.getWrappedView();
+
+        if (view instanceof MasaccioImageView) {
+
+            // The key is still registered for the view until the display is complete
+            ((MasaccioImageView) view).setImageKey(
+                    ImageKeys.getLogicalKey(mImageLoader.getLoadingUriForView(imageAware)));
+        }
+
+        mDisplayer.display(bitmap, imageAware, loadedFrom);
+    }
+}
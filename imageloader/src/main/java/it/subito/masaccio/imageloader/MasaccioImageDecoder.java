@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio.imageloader;
+
+import android.graphics.Bitmap;
+
+import com.nostra13.universalimageloader.core.decode.BaseImageDecoder;
+import com.nostra13.universalimageloader.core.decode.ImageDecoder;
+import com.nostra13.universalimageloader.core.decode.ImageDecodingInfo;
+
+import java.io.IOException;
+
+import it.subito.masaccio.MasaccioImageView;
+
+/**
+ * Image decoder detecting the faces of each decoded image in the loader thread.
+ * <p/>
+ * The detection runs on a reduced resolution copy of the bitmap, and its results are stored
+ * under the image URI, so that they are ready when the image is bound to a
+ * {@link MasaccioImageView} through a {@link MasaccioBitmapDisplayer}, whatever the size it is
+ * loaded at: once the faces of a thumbnail are known, no detection runs on the larger versions of
+ * the same image.
+ */
+public class MasaccioImageDecoder implements ImageDecoder {
+
+    private final int mAnalysisSize;
+
+    private final ImageDecoder mDecoder;
+
+    public MasaccioImageDecoder(final boolean loggingEnabled) {
+
+        this(new BaseImageDecoder(loggingEnabled));
+    }
+
+    public MasaccioImageDecoder(final ImageDecoder decoder) {
+
+        this(decoder, MasaccioImageView.DEFAULT_ANALYSIS_SIZE);
+    }
+
+    public MasaccioImageDecoder(final ImageDecoder decoder, final int analysisSize) {
+
+        if (decoder == null) {
+
+            throw new IllegalArgumentException("the decoder cannot be null");
+        }
+
+        mDecoder = decoder;
+        mAnalysisSize = analysisSize;
+    }
+
+    @Override
+    public Bitmap decode(final ImageDecodingInfo decodingInfo) throws IOException {
+
+        final Bitmap bitmap = mDecoder.decode(decodingInfo);
+
+        if (bitmap != null) {
+
+            MasaccioImageView.detectFaces(ImageKeys.getLogicalKey(decodingInfo.getImageKey()),
+                                          bitmap, mAnalysisSize);
+        }
+
+        return bitmap;
+    }
+}
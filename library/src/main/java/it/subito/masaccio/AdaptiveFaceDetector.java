@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import it.subito.masaccio.DetectorCapabilities.CostClass;
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+import it.subito.masaccio.MasaccioImageView.FaceDetectionEngine;
+
+/**
+ * Face detector adapting the detection quality to the measured latency, so that each image is
+ * analyzed within the configured time budget on any device.
+ * <p/>
+ * The detections start at the highest quality tier. When the average latency exceeds the budget
+ * the next tier is selected, reducing the analyzed resolution and the maximum number of faces,
+ * down to skipping the detection altogether. When the average latency is well below the budget,
+ * the previous tier is selected again, unless it was recently found to exceed it.
+ * <p/>
+ * The detection is reported as {@link FaceDetectionEngine#SKIPPED} at the lowest tier, rather
+ * than as a salient point or as an image without faces, so that the result is not cached and the
+ * image is analyzed again once the tier recovers.
+ */
+public class AdaptiveFaceDetector implements CapableFaceDetector {
+
+    public static final long DEFAULT_BUDGET_MS = 200;
+
+    private static final float LATENCY_SMOOTHING = 0.3f;
+
+    private static final int MIN_SAMPLES = 3;
+
+    private static final int RETRY_SAMPLES = 50;
+
+    private static final float UPGRADE_BUDGET_RATIO = 0.4f;
+
+    private final long mBudgetMs;
+
+    private final DetectorCapabilities[] mCapabilities;
+
+    private final FaceDetectionEngine[] mEngines;
+
+    private final float[] mTierLatencies;
+
+    private float mAverageLatency;
+
+    private volatile OnTierChangeListener mListener;
+
+    private int mSampleCount;
+
+    private Tier mTier = Tier.FULL;
+
+    public AdaptiveFaceDetector() {
+
+        this(DEFAULT_BUDGET_MS);
+    }
+
+    public AdaptiveFaceDetector(final long budgetMs) {
+
+        this(budgetMs, new EngineFactory() {
+
+            @Override
+            public FaceDetectionEngine create(final int maxFaces) {
+
+                return new AndroidFaceDetector(maxFaces);
+            }
+        });
+    }
+
+    public AdaptiveFaceDetector(final long budgetMs, final EngineFactory factory) {
+
+        if (budgetMs <= 0) {
+
+            throw new IllegalArgumentException("invalid budget: " + budgetMs);
+        }
+
+        mBudgetMs = budgetMs;
+
+        final Tier[] tiers = Tier.values();
+
+        mEngines = new FaceDetectionEngine[tiers.length];
+        mTierLatencies = new float[tiers.length];
+
+        for (final Tier tier : tiers) {
+
+            final int maxFaces = tier.getMaxFaces();
+
+            mEngines[tier.ordinal()] = (maxFaces > 0) ? factory.create(maxFaces) : null;
+        }
+
+        boolean isThreadSafe = true;
+
+        for (final FaceDetectionEngine engine : mEngines) {
+
+            if (engine != null) {
+
+                isThreadSafe &= DetectorCapabilities.of(engine).isThreadSafe();
+            }
+        }
+
+        mCapabilities = new DetectorCapabilities[tiers.length];
+
+        // Prefer the resolution of each tier, so that the bitmaps are downscaled only once
+        for (final Tier tier : tiers) {
+
+            mCapabilities[tier.ordinal()] =
+                    new DetectorCapabilities(isThreadSafe, tier.getMaxSize(), CostClass.MODERATE);
+        }
+    }
+
+    @Override
+    public DetectorCapabilities getCapabilities() {
+
+        return mCapabilities[getTier().ordinal()];
+    }
+
+    public synchronized float getAverageLatency() {
+
+        return mAverageLatency;
+    }
+
+    public long getBudget() {
+
+        return mBudgetMs;
+    }
+
+    public synchronized Tier getTier() {
+
+        return mTier;
+    }
+
+    public void setOnTierChangeListener(final OnTierChangeListener listener) {
+
+        mListener = listener;
+    }
+
+    /**
+     * Runs the engines of the highest and lowest detecting tiers on the specified bitmap, without
+     * measuring their latency, so that their initialization is not charged to the first
+     * detections.
+     */
+    public void warmUp(final Bitmap bitmap) {
+
+        mEngines[0].process(bitmap);
+        mEngines[Tier.LOW.ordinal()].process(bitmap);
+    }
+
+    @Override
+    public MasaccioFace[] process(final Bitmap bitmap) {
+
+        final Tier tier = getTier();
+
+        final FaceDetectionEngine engine = mEngines[tier.ordinal()];
+
+        if (engine == null) {
+
+            // Keep sampling, so that the detection is retried from time to time
+            onLatency(tier, 0);
+
+            return SKIPPED;
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final int maxSize = tier.getMaxSize();
+
+        Bitmap analyzed = bitmap;
+
+        // The bitmap is usually already downscaled by the caller, as preferred by the current tier
+        if ((maxSize > 0) && (Math.max(width, height) > maxSize)) {
+
+            final Bitmap downscaled = LuminancePreprocessor.get565(bitmap, maxSize);
+
+            if (downscaled != null) {
+
+                analyzed = downscaled;
+            }
+        }
+
+        final long startTime = SystemClock.elapsedRealtime();
+
+        final MasaccioFace[] faces = engine.process(analyzed);
+
+        onLatency(tier, SystemClock.elapsedRealtime() - startTime);
+
+        final float inverseScale = (float) width / analyzed.getWidth();
+
+        if (analyzed != bitmap) {
+
+            analyzed.recycle();
+        }
+
+        return MasaccioFace.scale(faces, inverseScale);
+    }
+
+    private void onLatency(final Tier tier, final long latencyMs) {
+
+        final Tier newTier;
+        final float averageLatency;
+
+        synchronized (this) {
+
+            // Ignore the detections started before the last tier change
+            if (tier != mTier) {
+
+                return;
+            }
+
+            if (mSampleCount == 0) {
+
+                mAverageLatency = latencyMs;
+
+            } else {
+
+                mAverageLatency += LATENCY_SMOOTHING * (latencyMs - mAverageLatency);
+            }
+
+            mSampleCount++;
+
+            averageLatency = mAverageLatency;
+
+            if (mSampleCount < MIN_SAMPLES) {
+
+                return;
+            }
+
+            final Tier[] tiers = Tier.values();
+
+            final int ordinal = tier.ordinal();
+
+            final long budgetMs = mBudgetMs;
+
+            if ((averageLatency > budgetMs) && (ordinal < (tiers.length - 1))) {
+
+                newTier = tiers[ordinal + 1];
+
+            } else if ((averageLatency < (budgetMs * UPGRADE_BUDGET_RATIO)) && (ordinal > 0) && (
+                    (mTierLatencies[ordinal - 1] <= budgetMs) || (mSampleCount
+                            >= RETRY_SAMPLES))) {
+
+                newTier = tiers[ordinal - 1];
+
+            } else {
+
+                return;
+            }
+
+            mTierLatencies[ordinal] = averageLatency;
+
+            mTier = newTier;
+            mSampleCount = 0;
+        }
+
+        final OnTierChangeListener listener = mListener;
+
+        if (listener != null) {
+
+            listener.onTierChanged(newTier, averageLatency);
+        }
+    }
+
+    /**
+     * Creates the detection engines used by the tiers.
+     */
+    public interface EngineFactory {
+
+        FaceDetectionEngine create(int maxFaces);
+    }
+
+    /**
+     * Listener notified, in the detection thread, each time a new tier is selected.
+     */
+    public interface OnTierChangeListener {
+
+        void onTierChanged(Tier tier, float averageLatencyMs);
+    }
+
+    /**
+     * Detection quality tiers, from the highest to the lowest one.
+     */
+    public enum Tier {
+
+        FULL(0, AndroidFaceDetector.MAX_FACES),
+        HIGH(480, AndroidFaceDetector.MAX_FACES),
+        MEDIUM(320, 2),
+        LOW(200, 1),
+        NONE(0, 0);
+
+        private final int mMaxFaces;
+
+        private final int mMaxSize;
+
+        Tier(final int maxSize, final int maxFaces) {
+
+            mMaxSize = maxSize;
+            mMaxFaces = maxFaces;
+        }
+
+        /**
+         * Returns the maximum number of faces to detect, where 0 means that no detection is run.
+         */
+        public int getMaxFaces() {
+
+            return mMaxFaces;
+        }
+
+        /**
+         * Returns the maximum size of the analyzed images, where 0 means the full resolution.
+         */
+        public int getMaxSize() {
+
+            return mMaxSize;
+        }
+    }
+}
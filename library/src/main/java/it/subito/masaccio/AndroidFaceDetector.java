@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.media.FaceDetector;
+import android.media.FaceDetector.Face;
+
+import it.subito.masaccio.DetectorCapabilities.CostClass;
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+
+/**
+ * Face detector based on the {@link FaceDetector} provided by the Android SDK.
+ */
+class AndroidFaceDetector implements CapableFaceDetector {
+
+    static final int MAX_FACES = 4;
+
+    // A new native detector is created for each bitmap, which is analyzed at full resolution
+    private static final DetectorCapabilities CAPABILITIES =
+            new DetectorCapabilities(true, 0, CostClass.EXPENSIVE);
+
+    private final int mMaxFaces;
+
+    AndroidFaceDetector() {
+
+        this(MAX_FACES);
+    }
+
+    AndroidFaceDetector(final int maxFaces) {
+
+        mMaxFaces = maxFaces;
+    }
+
+    @Override
+    public DetectorCapabilities getCapabilities() {
+
+        return CAPABILITIES;
+    }
+
+    /**
+     * Returns the faces found in the bitmap, or null if none.
+     */
+    static Face[] findFaces(final Bitmap bitmap, final int maxFaces) {
+
+        if (bitmap == null) {
+
+            return null;
+        }
+
+        final Bitmap bitmap565 = LuminancePreprocessor.get565(bitmap, 0);
+
+        if (bitmap565 == null) {
+
+            return null;
+        }
+
+        final Face[] faces = new Face[maxFaces];
+
+        final FaceDetector faceDetector =
+                new FaceDetector(bitmap565.getWidth(), bitmap565.getHeight(), maxFaces);
+
+        final int faceCount = faceDetector.findFaces(bitmap565, faces);
+
+        if (bitmap565 != bitmap) {
+
+            bitmap565.recycle();
+        }
+
+        if (faceCount <= 0) {
+
+            return null;
+        }
+
+        final Face[] detected = new Face[faceCount];
+
+        System.arraycopy(faces, 0, detected, 0, faceCount);
+
+        return detected;
+    }
+
+    @Override
+    public MasaccioFace[] process(final Bitmap bitmap) {
+
+        return MasaccioFace.from(findFaces(bitmap, mMaxFaces));
+    }
+}
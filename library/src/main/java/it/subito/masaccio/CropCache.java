@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Matrix;
+import android.widget.ImageView.ScaleType;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the start and end matrices computed by the crop logic.
+ * <p/>
+ * The matrices are stored normalized by the frame width, so that a frame with the same aspect
+ * ratio but a different size only requires the coefficients to be rescaled.
+ */
+class CropCache {
+
+    // Estimated size of an entry, including the two coefficient arrays and the key
+    private static final int ENTRY_BYTES = 256;
+
+    private static final int MAX_ENTRIES = 64;
+
+    // Frames whose aspect ratios differ less than this share the same entry
+    private static final float RATIO_PRECISION = 1000;
+
+    private static final CropCache sInstance = new CropCache();
+
+    private final LinkedHashMap<Key, CropEntry> mEntries =
+            new LinkedHashMap<Key, CropEntry>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Key, CropEntry> eldest) {
+
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    static CropCache getInstance() {
+
+        return sInstance;
+    }
+
+    private static float[] denormalize(final float[] normalized, final float frameWidth) {
+
+        if (normalized == null) {
+
+            return null;
+        }
+
+        final float[] coeffs = new float[9];
+
+        for (int i = 0; i < 6; i++) {
+
+            coeffs[i] = normalized[i] * frameWidth;
+        }
+
+        System.arraycopy(normalized, 6, coeffs, 6, 3);
+
+        return coeffs;
+    }
+
+    private static float[] normalize(final Matrix matrix, final float frameWidth) {
+
+        if (matrix == null) {
+
+            return null;
+        }
+
+        final float[] coeffs = new float[9];
+
+        matrix.getValues(coeffs);
+
+        for (int i = 0; i < 6; i++) {
+
+            coeffs[i] /= frameWidth;
+        }
+
+        return coeffs;
+    }
+
+    public synchronized void clear() {
+
+        mEntries.clear();
+    }
+
+    public synchronized long getFootprint() {
+
+        return (long) mEntries.size() * ENTRY_BYTES;
+    }
+
+    /**
+     * Evicts the least recently used entries, so that only the specified ratio of them is kept.
+     */
+    public synchronized void trim(final float keepRatio) {
+
+        final int maxSize = (int) (mEntries.size() * keepRatio);
+
+        final Iterator<Key> iterator = mEntries.keySet().iterator();
+
+        while ((mEntries.size() > maxSize) && iterator.hasNext()) {
+
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the cached matrices as a {start, end} pair of coefficient arrays, where the start
+     * one is null if no animation is needed, or null if no entry is found.
+     */
+    public float[][] get(final Key key) {
+
+        final CropEntry entry;
+
+        synchronized (this) {
+
+            entry = mEntries.get(key);
+        }
+
+        if (entry == null) {
+
+            return null;
+        }
+
+        return new float[][]{denormalize(entry.mStartCoeffs, key.mFrameWidth),
+                denormalize(entry.mEndCoeffs, key.mFrameWidth)};
+    }
+
+    public void put(final Key key, final Matrix startMatrix, final Matrix endMatrix) {
+
+        final CropEntry entry = new CropEntry(normalize(startMatrix, key.mFrameWidth),
+                                      normalize(endMatrix, key.mFrameWidth));
+
+        synchronized (this) {
+
+            mEntries.put(key, entry);
+        }
+    }
+
+    private static class CropEntry {
+
+        private final float[] mEndCoeffs;
+
+        private final float[] mStartCoeffs;
+
+        private CropEntry(final float[] startCoeffs, final float[] endCoeffs) {
+
+            mStartCoeffs = startCoeffs;
+            mEndCoeffs = endCoeffs;
+        }
+    }
+
+    /**
+     * Identifies a crop computation by all its inputs: the image size and faces, the frame
+     * aspect ratio, the scale type, the matrix flags and the scale/translate parameters.
+     */
+    static class Key {
+
+        private final boolean mAnimated;
+
+        private final float mEndScale;
+
+        private final float mEndX;
+
+        private final float mEndY;
+
+        private final float mFocusX;
+
+        private final float mFocusY;
+
+        private final float mFrameRatio;
+
+        private final float mFrameSize;
+
+        private final float mFrameWidth;
+
+        private final boolean mHasFaces;
+
+        private final int mImageHeight;
+
+        private final int mImageWidth;
+
+        private final int mMatrixFlags;
+
+        private final ScaleType mScaleType;
+
+        private final float mStartScale;
+
+        private final float mStartX;
+
+        private final float mStartY;
+
+        Key(final int imageWidth, final int imageHeight, final boolean hasFaces,
+                final float focusX, final float focusY,
+                final float frameWidth, final float frameHeight, final ScaleType scaleType,
+                final int matrixFlags, final float startScale, final float startX,
+                final float startY, final float endScale, final float endX, final float endY,
+                final boolean animated) {
+
+            mImageWidth = imageWidth;
+            mImageHeight = imageHeight;
+            mHasFaces = hasFaces;
+            mFocusX = focusX;
+            mFocusY = focusY;
+            mFrameWidth = frameWidth;
+            mFrameRatio =
+                    Math.round(frameHeight / frameWidth * RATIO_PRECISION) / RATIO_PRECISION;
+            mScaleType = scaleType;
+            mMatrixFlags = matrixFlags;
+            mStartScale = startScale;
+            mStartX = startX;
+            mStartY = startY;
+            mEndScale = endScale;
+            mEndX = endX;
+            mEndY = endY;
+            mAnimated = animated;
+
+            // The unscaled image placement does not grow with the frame size
+            if ((scaleType == ScaleType.CENTER) || (scaleType == ScaleType.CENTER_INSIDE)) {
+
+                mFrameSize = frameWidth;
+
+            } else {
+
+                mFrameSize = 0;
+            }
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+
+            if (this == o) {
+
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+
+                return false;
+            }
+
+            final Key key = (Key) o;
+
+            return (mAnimated == key.mAnimated) && (mHasFaces == key.mHasFaces) && (mImageHeight
+                    == key.mImageHeight) && (mImageWidth == key.mImageWidth) && (mMatrixFlags
+                    == key.mMatrixFlags) && (Float.compare(key.mEndScale, mEndScale) == 0) && (
+                    Float.compare(key.mEndX, mEndX) == 0) && (Float.compare(key.mEndY, mEndY)
+                    == 0) && (Float.compare(key.mFocusX, mFocusX) == 0) && (
+                    Float.compare(key.mFocusY, mFocusY) == 0) && (
+                    Float.compare(key.mFrameRatio, mFrameRatio) == 0) && (
+                    Float.compare(key.mFrameSize, mFrameSize) == 0) && (
+                    Float.compare(key.mStartScale, mStartScale) == 0) && (
+                    Float.compare(key.mStartX, mStartX) == 0) && (
+                    Float.compare(key.mStartY, mStartY) == 0) && (mScaleType == key.mScaleType);
+        }
+
+        @Override
+        public int hashCode() {
+
+            int result = (mAnimated ? 1 : 0);
+            result = 31 * result + Float.floatToIntBits(mEndScale);
+            result = 31 * result + Float.floatToIntBits(mEndX);
+            result = 31 * result + Float.floatToIntBits(mEndY);
+            result = 31 * result + Float.floatToIntBits(mFocusX);
+            result = 31 * result + Float.floatToIntBits(mFocusY);
+            result = 31 * result + Float.floatToIntBits(mFrameRatio);
+            result = 31 * result + Float.floatToIntBits(mFrameSize);
+            result = 31 * result + (mHasFaces ? 1 : 0);
+            result = 31 * result + mImageHeight;
+            result = 31 * result + mImageWidth;
+            result = 31 * result + mMatrixFlags;
+            result = 31 * result + (mScaleType != null ? mScaleType.hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(mStartScale);
+            result = 31 * result + Float.floatToIntBits(mStartX);
+            result = 31 * result + Float.floatToIntBits(mStartY);
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,792 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Looper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import it.subito.masaccio.DetectionScheduler.Job;
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+import it.subito.masaccio.MasaccioImageView.FaceDetectionEngine;
+import it.subito.masaccio.engine.HammingIndex;
+import it.subito.masaccio.engine.LuminanceImage;
+import it.subito.masaccio.engine.PerceptualHash;
+
+/**
+ * Face detector caching the results of the wrapped detection engine, whose executions are
+ * dispatched through the {@link DetectionScheduler}.
+ * <p/>
+ * Only one detection at a time runs for the same bitmap or key: the callers arriving while it is
+ * in flight wait for its result, instead of running it again.
+ * <p/>
+ * The faces found in background are also indexed by the perceptual hash of their images, so that
+ * the ones of a near-duplicate image, like a resized, re-encoded or slightly cropped copy whose
+ * aspect ratio differs by a few percent at most, are reused after being mapped into the new image
+ * size. The hash is computed only by the detection workers, and only for images with enough
+ * texture to tell them apart.
+ */
+class DefaultMasaccioFaceDetector implements FaceDetectionEngine {
+
+    // Estimated size of a stored result, excluding its faces
+    private static final int ENTRY_BYTES = 96;
+
+    private static final int FACE_BYTES = 32;
+
+    // Estimated size of an indexed fingerprint, including its band lists and a few faces
+    private static final int FINGERPRINT_BYTES = 256;
+
+    private static final int FINGERPRINT_SIZE = 64;
+
+    // Relative difference of the aspect ratios of two near-duplicates, e.g. after a slight crop
+    private static final float MAX_DUPLICATE_RATIO_ERROR = 0.05f;
+
+    private static final int MAX_FINGERPRINT_DISTANCE = 2;
+
+    private static final int MAX_FINGERPRINTS = 256;
+
+    private static final int MAX_KEYS = 256;
+
+    private static final int WARM_UP_SIZE = 64;
+
+    private static final float MAX_RATIO_ERROR = 0.01f;
+
+    private static final MasaccioFace[] NO_FACES = new MasaccioFace[0];
+
+    private final Map<Bitmap, MasaccioFace[]> mFacesMap =
+            Collections.synchronizedMap(new WeakHashMap<Bitmap, MasaccioFace[]>());
+
+    private final HammingIndex<KeyedFaces> mFingerprints =
+            new HammingIndex<KeyedFaces>(MAX_FINGERPRINTS, MAX_FINGERPRINT_DISTANCE);
+
+    private final HashMap<Object, Job> mInFlight = new HashMap<Object, Job>();
+
+    private final LinkedHashMap<String, KeyedFaces> mKeyedFaces =
+            new LinkedHashMap<String, KeyedFaces>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<String, KeyedFaces> eldest) {
+
+                    return size() > MAX_KEYS;
+                }
+            };
+
+    // The copies of the bitmap regions being analyzed, whose faces are not indexed
+    private final Set<Bitmap> mRegionBitmaps = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>()));
+
+    private volatile FaceDetectionEngine mEngine;
+
+    private volatile FaceDetectionEngine mIndexedEngine;
+
+    DefaultMasaccioFaceDetector(final FaceDetectionEngine engine) {
+
+        mEngine = engine;
+        mIndexedEngine = new IndexedEngine(engine);
+    }
+
+    private static int getCallerPriority() {
+
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+
+            return DetectionScheduler.PRIORITY_VISIBLE;
+        }
+
+        return DetectionScheduler.PRIORITY_DEFAULT;
+    }
+
+    @Override
+    public MasaccioFace[] process(final Bitmap bitmap) {
+
+        if (bitmap == null) {
+
+            return null;
+        }
+
+        return process(bitmap, getCallerPriority());
+    }
+
+    MasaccioFace[] getFaces(final Bitmap bitmap) {
+
+        return mFacesMap.get(bitmap);
+    }
+
+    /**
+     * Returns the faces stored under the specified key, mapped into an image of the specified
+     * size, an empty array if the image contains none, or null if they are not known.
+     */
+    MasaccioFace[] getFaces(final String key, final int width, final int height) {
+
+        final KeyedFaces keyedFaces;
+
+        synchronized (mKeyedFaces) {
+
+            keyedFaces = mKeyedFaces.get(key);
+        }
+
+        if ((keyedFaces == null) || (Math.abs(((float) width / height) - keyedFaces.mAspectRatio)
+                > MAX_RATIO_ERROR)) {
+
+            return null;
+        }
+
+        return MasaccioFace.scale(keyedFaces.mFaces, width);
+    }
+
+    private static MasaccioFace[] toResult(final MasaccioFace[] faces) {
+
+        if ((faces != null) && (faces.length > 0)) {
+
+            return faces;
+        }
+
+        return null;
+    }
+
+    /**
+     * Detects the faces on a copy of the bitmap downscaled to the specified maximum size, and
+     * stores them under the specified key, so that they can be retrieved for any other bitmap
+     * decoded from the same source.
+     */
+    MasaccioFace[] process(final String key, final Bitmap bitmap, final int maxSize) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final MasaccioFace[] preProcessed = getFaces(key, width, height);
+
+        if (preProcessed != null) {
+
+            putFaces(bitmap, preProcessed);
+
+            return toResult(preProcessed);
+        }
+
+        final int priority = getCallerPriority();
+
+        Job inFlight = getInFlight(key);
+
+        if (inFlight == null) {
+
+            final Bitmap analyzed = getAnalyzedBitmap(bitmap, getAnalysisSize(maxSize));
+
+            final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+            final Job job = scheduler.createJob(mIndexedEngine, analyzed, priority, null);
+
+            inFlight = register(key, job);
+
+            if (inFlight == job) {
+
+                // The faces may have been stored in the meantime by the previous job
+                final MasaccioFace[] stored = getFaces(key, width, height);
+
+                if (stored != null) {
+
+                    recycleCopy(analyzed, bitmap);
+
+                    unregister(key, job);
+
+                    putFaces(bitmap, stored);
+
+                    return toResult(stored);
+                }
+
+                scheduler.execute(job);
+
+                recycleCopy(job, analyzed, bitmap);
+
+                final MasaccioFace[] faces = getFaces(job, width);
+
+                if (faces != null) {
+
+                    putFaces(bitmap, faces);
+                    putFaces(key, width, height, faces);
+                }
+
+                unregister(key, job);
+
+                return toResult(faces);
+            }
+
+            recycleCopy(analyzed, bitmap);
+        }
+
+        DetectionScheduler.getInstance().join(inFlight, priority);
+
+        final MasaccioFace[] faces = getFaces(inFlight, width);
+
+        if (faces != null) {
+
+            putFaces(bitmap, faces);
+        }
+
+        return toResult(faces);
+    }
+
+    MasaccioFace[] process(final Bitmap bitmap, final int priority) {
+
+        final MasaccioFace[] preProcessed = mFacesMap.get(bitmap);
+
+        if (preProcessed != null) {
+
+            return toResult(preProcessed);
+        }
+
+        final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+        final Bitmap analyzed = getAnalyzedBitmap(bitmap, getAnalysisSize(0));
+
+        final Job job = scheduler.createJob(mIndexedEngine, analyzed, priority, null);
+
+        final Job inFlight = register(bitmap, job);
+
+        if (inFlight != job) {
+
+            recycleCopy(analyzed, bitmap);
+
+            // Wait for the result of the detection already running
+            scheduler.join(inFlight, priority);
+
+            return toResult(getFaces(inFlight, bitmap.getWidth()));
+        }
+
+        // The faces may have been stored in the meantime by the previous job
+        final MasaccioFace[] stored = mFacesMap.get(bitmap);
+
+        if (stored != null) {
+
+            recycleCopy(analyzed, bitmap);
+
+            unregister(bitmap, job);
+
+            return toResult(stored);
+        }
+
+        scheduler.execute(job);
+
+        recycleCopy(job, analyzed, bitmap);
+
+        final MasaccioFace[] faces = getFaces(job, bitmap.getWidth());
+
+        if (faces != null) {
+
+            putFaces(bitmap, faces);
+        }
+
+        unregister(bitmap, job);
+
+        return toResult(faces);
+    }
+
+    /**
+     * Detects the faces inside the specified region of the bitmap, returned in the bitmap
+     * coordinates, or null if the detection was dropped. The result is not stored, since it does
+     * not describe the whole image.
+     */
+    MasaccioFace[] processRegion(final Bitmap bitmap, final Rect region) {
+
+        final Bitmap window =
+                Bitmap.createBitmap(bitmap, region.left, region.top, region.width(),
+                                    region.height());
+
+        final Bitmap analyzed = getAnalyzedBitmap(window, getAnalysisSize(0));
+
+        final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+        final Job job = scheduler.createJob(mIndexedEngine, analyzed, getCallerPriority(), null);
+
+        mRegionBitmaps.add(analyzed);
+
+        try {
+
+            scheduler.execute(job);
+
+            return MasaccioFace.translate(getFaces(job, window.getWidth()), region.left,
+                                          region.top);
+
+        } finally {
+
+            if (job.isDone()) {
+
+                mRegionBitmaps.remove(analyzed);
+            }
+
+            recycleCopy(job, analyzed, window);
+            recycleCopy(job, window, bitmap);
+        }
+    }
+
+    void prefetch(final Bitmap bitmap) {
+
+        if ((bitmap == null) || (mFacesMap.get(bitmap) != null)) {
+
+            return;
+        }
+
+        final Job job = createAsyncJob(bitmap, DetectionScheduler.PRIORITY_PREFETCH);
+
+        if (register(bitmap, job) == job) {
+
+            DetectionScheduler.getInstance().submit(job);
+
+        } else {
+
+            recycleCopy(job.getBitmap(), bitmap);
+        }
+    }
+
+    /**
+     * Creates a job storing the faces of the bitmap once done, analyzing a downscaled copy if the
+     * engine prefers a smaller input.
+     */
+    private Job createAsyncJob(final Bitmap bitmap, final int priority) {
+
+        final Bitmap analyzed = getAnalyzedBitmap(bitmap, getAnalysisSize(0));
+
+        final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+        return scheduler.createJob(mIndexedEngine, analyzed, priority,
+                                   new DetectionScheduler.Callback() {
+
+                                       @Override
+                                       public void onDetectionComplete(final Job job) {
+
+                                           recycleCopy(analyzed, bitmap);
+
+                                           final MasaccioFace[] faces =
+                                                   getFaces(job, bitmap.getWidth());
+
+                                           if (faces != null) {
+
+                                               putFaces(bitmap, faces);
+                                           }
+
+                                           unregister(bitmap, job);
+                                       }
+                                   });
+    }
+
+    /**
+     * Starts the detection of the bitmap in background, or joins the one already in flight, and
+     * returns its job. The callback is notified in the main thread after the faces have been
+     * stored, so that they can be retrieved through {@link #getFaces(Bitmap)}.
+     * <p/>
+     * The faces already known for the bitmap should be looked up through
+     * {@link #getFaces(Bitmap)} before calling this method.
+     */
+    Job detectAsync(final Bitmap bitmap, final int priority,
+            final DetectionScheduler.Callback callback) {
+
+        final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+        final Job job = createAsyncJob(bitmap, priority);
+
+        final Job inFlight = register(bitmap, job);
+
+        if (inFlight == job) {
+
+            scheduler.submit(job);
+
+        } else {
+
+            recycleCopy(job.getBitmap(), bitmap);
+
+            scheduler.promote(inFlight, priority);
+        }
+
+        inFlight.addCallback(callback);
+
+        return inFlight;
+    }
+
+    /**
+     * Joins in background the detection in flight for the specified key, if any, and returns its
+     * job, or null if there is none. Once done, the faces are stored for the bitmap before
+     * notifying the callback in the main thread.
+     */
+    Job joinAsync(final String key, final Bitmap bitmap, final int priority,
+            final DetectionScheduler.Callback callback) {
+
+        final Job inFlight = getInFlight(key);
+
+        if (inFlight == null) {
+
+            return null;
+        }
+
+        DetectionScheduler.getInstance().promote(inFlight, priority);
+
+        inFlight.addCallback(new DetectionScheduler.Callback() {
+
+            @Override
+            public void onDetectionComplete(final Job job) {
+
+                final MasaccioFace[] faces = getFaces(job, bitmap.getWidth());
+
+                if (faces != null) {
+
+                    putFaces(bitmap, faces);
+                }
+
+                callback.onDetectionComplete(job);
+            }
+        });
+
+        return inFlight;
+    }
+
+    DetectorCapabilities getCapabilities() {
+
+        return DetectorCapabilities.of(mEngine);
+    }
+
+    /**
+     * Returns the size the images should be downscaled to before the analysis, combining the
+     * specified one and the one preferred by the engine, where 0 means any size.
+     */
+    private int getAnalysisSize(final int maxSize) {
+
+        final int preferredSize = getCapabilities().getPreferredInputSize();
+
+        if ((preferredSize > 0) && ((maxSize <= 0) || (preferredSize < maxSize))) {
+
+            return preferredSize;
+        }
+
+        return maxSize;
+    }
+
+    private static Bitmap getAnalyzedBitmap(final Bitmap bitmap, final int maxSize) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        if ((maxSize <= 0) || (Math.max(width, height) <= maxSize)) {
+
+            return bitmap;
+        }
+
+        // Downscale and convert in a single pass, so that the engine needs no further copy
+        final Bitmap analyzed = LuminancePreprocessor.get565(bitmap, maxSize);
+
+        if (analyzed != null) {
+
+            return analyzed;
+        }
+
+        final float scale = (float) maxSize / Math.max(width, height);
+
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)),
+                                         Math.max(1, Math.round(height * scale)), true);
+    }
+
+    /**
+     * Recycles the copy of the bitmap analyzed by the specified job once it is done, since the
+     * job may still be running if the caller was interrupted.
+     */
+    private static void recycleCopy(final Job job, final Bitmap copy, final Bitmap bitmap) {
+
+        if (copy != bitmap) {
+
+            job.recycleWhenDone(copy);
+        }
+    }
+
+    private static void recycleCopy(final Bitmap copy, final Bitmap bitmap) {
+
+        if (copy != bitmap) {
+
+            copy.recycle();
+        }
+    }
+
+    void setEngine(final FaceDetectionEngine engine) {
+
+        if ((engine == null) || (engine instanceof DefaultMasaccioFaceDetector)) {
+
+            throw new IllegalArgumentException("invalid detection engine: " + engine);
+        }
+
+        mEngine = engine;
+        mIndexedEngine = new IndexedEngine(engine);
+    }
+
+    /**
+     * Returns the faces found by the specified job, scaled to an image of the specified width, an
+     * empty array if none, or null if the job was dropped or is still running.
+     */
+    MasaccioFace[] getFaces(final Job job, final int width) {
+
+        if (job.isDropped() || !job.isDone()) {
+
+            // Do not cache anything, so that the detection can be retried later
+            return null;
+        }
+
+        final MasaccioFace[] faces = job.getFaces();
+
+        if (faces == null) {
+
+            return NO_FACES;
+        }
+
+        return MasaccioFace.scale(faces, (float) width / job.getWidth());
+    }
+
+    private Job getInFlight(final Object key) {
+
+        synchronized (mInFlight) {
+
+            return mInFlight.get(key);
+        }
+    }
+
+    /**
+     * Registers the specified job as the one in flight for the specified key, unless another one
+     * already is, in which case the latter is returned.
+     */
+    private Job register(final Object key, final Job job) {
+
+        synchronized (mInFlight) {
+
+            final Job inFlight = mInFlight.get(key);
+
+            if (inFlight != null) {
+
+                return inFlight;
+            }
+
+            mInFlight.put(key, job);
+
+            return job;
+        }
+    }
+
+    private void unregister(final Object key, final Job job) {
+
+        synchronized (mInFlight) {
+
+            if (mInFlight.get(key) == job) {
+
+                mInFlight.remove(key);
+            }
+        }
+    }
+
+    void putFaces(final Bitmap bitmap, final MasaccioFace[] faces) {
+
+        if ((faces != null) && (faces.length > 0)) {
+
+            mFacesMap.put(bitmap, faces);
+
+        } else {
+
+            mFacesMap.put(bitmap, NO_FACES);
+        }
+    }
+
+    /**
+     * Runs the engine once on a blank bitmap, so that its native libraries and classes are
+     * loaded, and starts the detection workers.
+     */
+    void warmUp() {
+
+        final FaceDetectionEngine engine = mEngine;
+
+        final Bitmap bitmap =
+                Bitmap.createBitmap(WARM_UP_SIZE, WARM_UP_SIZE, Bitmap.Config.RGB_565);
+
+        try {
+
+            if (engine instanceof AdaptiveFaceDetector) {
+
+                ((AdaptiveFaceDetector) engine).warmUp(bitmap);
+
+            } else {
+
+                engine.process(bitmap);
+            }
+
+        } finally {
+
+            bitmap.recycle();
+        }
+
+        DetectionScheduler.getInstance().warmUp();
+    }
+
+    /**
+     * Returns the estimated memory retained by the stored faces.
+     */
+    long getFootprint() {
+
+        long bytes = 0;
+
+        synchronized (mFacesMap) {
+
+            for (final MasaccioFace[] faces : mFacesMap.values()) {
+
+                bytes += ENTRY_BYTES + (faces.length * FACE_BYTES);
+            }
+        }
+
+        synchronized (mKeyedFaces) {
+
+            for (final KeyedFaces keyedFaces : mKeyedFaces.values()) {
+
+                bytes += ENTRY_BYTES + (keyedFaces.mFaces.length * FACE_BYTES);
+            }
+        }
+
+        bytes += (long) mFingerprints.size() * FINGERPRINT_BYTES;
+
+        return bytes;
+    }
+
+    /**
+     * Evicts the least recently used faces stored by key or by fingerprint, so that only the
+     * specified ratio of them is kept. The faces stored by bitmap are released only when nothing
+     * is kept, since they are anyway bound to the lifetime of their bitmaps.
+     */
+    void trim(final float keepRatio) {
+
+        if (keepRatio <= 0) {
+
+            mFacesMap.clear();
+        }
+
+        mFingerprints.trim(keepRatio);
+
+        synchronized (mKeyedFaces) {
+
+            final int maxSize = (int) (mKeyedFaces.size() * keepRatio);
+
+            final Iterator<String> iterator = mKeyedFaces.keySet().iterator();
+
+            while ((mKeyedFaces.size() > maxSize) && iterator.hasNext()) {
+
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    void putFaces(final String key, final int width, final int height,
+            final MasaccioFace[] faces) {
+
+        // Store the faces normalized by the image width, so that they apply to any resolution
+        final KeyedFaces keyedFaces = new KeyedFaces((float) width / height,
+                                                     ((faces != null) && (faces.length > 0))
+                                                             ? MasaccioFace.scale(faces,
+                                                                                  1f / width)
+                                                             : NO_FACES);
+
+        synchronized (mKeyedFaces) {
+
+            mKeyedFaces.put(key, keyedFaces);
+        }
+    }
+
+    /**
+     * Engine reusing the faces of the near-duplicates of the analyzed image, found in the
+     * fingerprint index, and indexing the faces found by the wrapped engine otherwise. The images
+     * are hashed only in background, since the main thread runs the wrapped engine directly.
+     */
+    private class IndexedEngine implements CapableFaceDetector {
+
+        private final FaceDetectionEngine mWrapped;
+
+        private IndexedEngine(final FaceDetectionEngine wrapped) {
+
+            mWrapped = wrapped;
+        }
+
+        @Override
+        public DetectorCapabilities getCapabilities() {
+
+            return DetectorCapabilities.of(mWrapped);
+        }
+
+        @Override
+        public MasaccioFace[] process(final Bitmap bitmap) {
+
+            if ((Looper.getMainLooper() == Looper.myLooper()) || mRegionBitmaps.contains(bitmap)) {
+
+                return mWrapped.process(bitmap);
+            }
+
+            final LuminanceImage thumbnail =
+                    LuminancePreprocessor.getLuminance(bitmap, FINGERPRINT_SIZE);
+
+            if (!PerceptualHash.isDistinctive(thumbnail)) {
+
+                // Any image with little texture would match it
+                return mWrapped.process(bitmap);
+            }
+
+            final long fingerprint = PerceptualHash.compute(thumbnail);
+
+            final int width = bitmap.getWidth();
+            final int height = bitmap.getHeight();
+
+            final float aspectRatio = (float) width / height;
+
+            final KeyedFaces duplicate = mFingerprints.get(fingerprint);
+
+            if ((duplicate != null) && (Math.abs((aspectRatio / duplicate.mAspectRatio) - 1)
+                    <= MAX_DUPLICATE_RATIO_ERROR)) {
+
+                // The normalized faces are stretched by the small difference of the ratios
+                return MasaccioFace.scale(duplicate.mFaces, width, height);
+            }
+
+            final MasaccioFace[] faces = mWrapped.process(bitmap);
+
+            // Only the faces are shared, since a near-duplicate is no proof of their absence
+            if ((faces != null) && (faces.length > 0)) {
+
+                // Store the faces as fractions of the image size, so that they fit any duplicate
+                mFingerprints.put(fingerprint, new KeyedFaces(aspectRatio, MasaccioFace.scale(
+                        faces, 1f / width, 1f / height)));
+            }
+
+            return faces;
+        }
+    }
+
+    private static class KeyedFaces {
+
+        private final float mAspectRatio;
+
+        private final MasaccioFace[] mFaces;
+
+        private KeyedFaces(final float aspectRatio, final MasaccioFace[] faces) {
+
+            mAspectRatio = aspectRatio;
+            mFaces = faces;
+        }
+    }
+}
@@ -0,0 +1,789 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import it.subito.masaccio.MasaccioImageView.FaceDetectionEngine;
+
+/**
+ * Central scheduler of the face detections.
+ * <p/>
+ * Each detection holds a copy of the image plus the detector buffers, so the jobs are admitted
+ * only while the estimated memory of the running ones fits into a byte budget, by a number of
+ * worker threads equal to the available cores. Queued jobs run by priority, so that the images
+ * shown by visible views are analyzed before the prefetched ones, and the lowest priority ones
+ * are dropped when the queue grows beyond the budget or on explicit request.
+ * <p/>
+ * Detections requested from the main thread are never queued, since the UI cannot be blocked:
+ * they are run right away, still taking their share of the budget.
+ * <p/>
+ * Among the jobs with the same priority, the ones of cheaper detectors, as declared by their
+ * {@link DetectorCapabilities}, run first, while the detectors which are not thread safe run one
+ * job at a time: their queued jobs are not dispatched while another one is running, so that the
+ * workers are free to run the jobs of the other detectors. A detection requested from the main
+ * thread only waits for the running job of the same detector, if not thread safe.
+ */
+public class DetectionScheduler {
+
+    public static final int PRIORITY_DEFAULT = 1;
+
+    public static final int PRIORITY_PREFETCH = 2;
+
+    public static final int PRIORITY_VISIBLE = 0;
+
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private static final int BUDGET_MEMORY_RATIO = 8;
+
+    private static final String LOG_TAG = "Masaccio";
+
+    private static final int MAX_QUEUED_BUDGET_RATIO = 2;
+
+    private static final DetectionScheduler sInstance = new DetectionScheduler();
+
+    // The detectors not supporting concurrent calls which are running a job
+    private final Set<FaceDetectionEngine> mBusyDetectors =
+            Collections.newSetFromMap(new IdentityHashMap<FaceDetectionEngine, Boolean>());
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final PriorityQueue<Job> mQueue = new PriorityQueue<Job>();
+
+    private final int mWorkerCount;
+
+    private long mBudget;
+
+    private long mBytesInUse;
+
+    private long mQueuedBytes;
+
+    private long mSequence;
+
+    private int mStartedWorkers;
+
+    private DetectionScheduler() {
+
+        mBudget = Runtime.getRuntime().maxMemory() / BUDGET_MEMORY_RATIO;
+        mWorkerCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static DetectionScheduler getInstance() {
+
+        return sInstance;
+    }
+
+    /**
+     * Returns the estimated memory needed to analyze the specified bitmap.
+     */
+    static long getCost(final Bitmap bitmap) {
+
+        return (long) bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Drops all the queued jobs with at least the specified priority, whose callers will get no
+     * result. Returns the number of dropped jobs.
+     */
+    public int dropQueued(final int minPriority) {
+
+        int count = 0;
+
+        synchronized (this) {
+
+            final Iterator<Job> iterator = mQueue.iterator();
+
+            while (iterator.hasNext()) {
+
+                final Job job = iterator.next();
+
+                if (job.mPriority >= minPriority) {
+
+                    iterator.remove();
+
+                    mQueuedBytes -= job.mCost;
+
+                    job.drop();
+
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    public synchronized long getBudget() {
+
+        return mBudget;
+    }
+
+    public synchronized void setBudget(final long bytes) {
+
+        mBudget = bytes;
+
+        notifyAll();
+    }
+
+    public synchronized long getBytesInUse() {
+
+        return mBytesInUse;
+    }
+
+    public synchronized long getQueuedBytes() {
+
+        return mQueuedBytes;
+    }
+
+    /**
+     * Starts all the worker threads, which are otherwise started only when needed.
+     */
+    synchronized void warmUp() {
+
+        while (mStartedWorkers < mWorkerCount) {
+
+            mStartedWorkers++;
+
+            new Worker().start();
+        }
+    }
+
+    /**
+     * Creates a new detection job, to be run through {@link #execute(Job)} or
+     * {@link #submit(Job)}. The callback, if any, will be notified in the main thread.
+     */
+    Job createJob(final FaceDetectionEngine detector, final Bitmap bitmap, final int priority,
+            final Callback callback) {
+
+        return new Job(detector, bitmap, priority, callback);
+    }
+
+    /**
+     * Runs the detection synchronously, waiting for its turn if called from a background thread.
+     * <p/>
+     * When called from the main thread, the detection runs right away even if it does not fit
+     * into the budget, since the UI cannot wait for the running jobs to complete, unless its
+     * detector is not thread safe and already running another job. Its cost is still added to the
+     * memory in use, so that no queued job is started until it completes.
+     * <p/>
+     * If the calling thread is interrupted while waiting, the job is dropped if still queued, or
+     * left running otherwise: the caller should then release the analyzed bitmap through
+     * {@link Job#recycleWhenDone(Bitmap)}.
+     */
+    void execute(final Job job) {
+
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+
+            synchronized (this) {
+
+                if (!awaitDetector(job)) {
+
+                    job.drop();
+
+                    return;
+                }
+
+                acquire(job);
+            }
+
+            run(job);
+
+            return;
+        }
+
+        enqueue(job);
+
+        job.await();
+
+        if (!job.isDone()) {
+
+            cancel(job);
+        }
+    }
+
+    /**
+     * Drops the specified job if still queued, so that its bitmap is not analyzed.
+     */
+    private synchronized void cancel(final Job job) {
+
+        if (mQueue.remove(job)) {
+
+            mQueuedBytes -= job.mCost;
+
+            job.drop();
+        }
+    }
+
+    /**
+     * Waits for the completion of a job started by another caller, raising its priority to the
+     * specified one if still queued. When called from the main thread, a still queued job is run
+     * right away.
+     */
+    void join(final Job job, final int priority) {
+
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+
+            boolean runNow = false;
+
+            synchronized (this) {
+
+                if (awaitDetector(job) && mQueue.remove(job)) {
+
+                    mQueuedBytes -= job.mCost;
+
+                    acquire(job);
+
+                    runNow = true;
+                }
+            }
+
+            if (runNow) {
+
+                run(job);
+
+                return;
+            }
+
+        } else {
+
+            promote(job, priority);
+        }
+
+        job.await();
+    }
+
+    /**
+     * Raises the priority of the specified job to the specified one, if still queued.
+     */
+    synchronized void promote(final Job job, final int priority) {
+
+        if ((priority < job.mPriority) && mQueue.remove(job)) {
+
+            job.mPriority = priority;
+
+            mQueue.add(job);
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Queues the detection, the callback will be notified in the main thread.
+     */
+    Job submit(final FaceDetectionEngine detector, final Bitmap bitmap, final int priority,
+            final Callback callback) {
+
+        final Job job = new Job(detector, bitmap, priority, callback);
+
+        submit(job);
+
+        return job;
+    }
+
+    void submit(final Job job) {
+
+        enqueue(job);
+    }
+
+    private void enqueue(final Job job) {
+
+        synchronized (this) {
+
+            final long maxQueuedBytes = mBudget * MAX_QUEUED_BUDGET_RATIO;
+
+            if ((mQueuedBytes + job.mCost) > maxQueuedBytes) {
+
+                // Make room by dropping lower priority jobs, starting from the latest ones
+                dropLowerPriority(job, maxQueuedBytes - job.mCost);
+
+                if (!mQueue.isEmpty() && ((mQueuedBytes + job.mCost) > maxQueuedBytes)) {
+
+                    job.drop();
+
+                    return;
+                }
+            }
+
+            job.mSequence = mSequence++;
+
+            mQueue.add(job);
+            mQueuedBytes += job.mCost;
+
+            if (mStartedWorkers < mWorkerCount) {
+
+                mStartedWorkers++;
+
+                new Worker().start();
+            }
+
+            notifyAll();
+        }
+    }
+
+    private void dropLowerPriority(final Job job, final long maxQueuedBytes) {
+
+        while (mQueuedBytes > maxQueuedBytes) {
+
+            Job victim = null;
+
+            for (final Job queued : mQueue) {
+
+                if ((queued.mPriority > job.mPriority) && ((victim == null) || (queued.compareTo(
+                        victim) > 0))) {
+
+                    victim = queued;
+                }
+            }
+
+            if (victim == null) {
+
+                return;
+            }
+
+            mQueue.remove(victim);
+            mQueuedBytes -= victim.mCost;
+
+            victim.drop();
+        }
+    }
+
+    /**
+     * Marks the memory and the detector of the job as in use, the latter only if it does not
+     * support concurrent calls. Must be called while holding the scheduler lock.
+     */
+    private void acquire(final Job job) {
+
+        mBytesInUse += job.mCost;
+
+        if (!job.mCapabilities.isThreadSafe()) {
+
+            mBusyDetectors.add(job.mDetector);
+        }
+    }
+
+    /**
+     * Waits until the detector of the job can run it, and returns false if the waiting thread is
+     * interrupted. Must be called while holding the scheduler lock.
+     */
+    private boolean awaitDetector(final Job job) {
+
+        while (!isRunnable(job)) {
+
+            try {
+
+                wait();
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isRunnable(final Job job) {
+
+        return job.mCapabilities.isThreadSafe() || !mBusyDetectors.contains(job.mDetector);
+    }
+
+    /**
+     * Returns the queued job to be run first among the ones whose detector is not busy, or null
+     * if none. Must be called while holding the scheduler lock.
+     */
+    private Job peekRunnable() {
+
+        final Job head = mQueue.peek();
+
+        if ((head == null) || isRunnable(head)) {
+
+            return head;
+        }
+
+        Job next = null;
+
+        for (final Job job : mQueue) {
+
+            if (isRunnable(job) && ((next == null) || (job.compareTo(next) < 0))) {
+
+                next = job;
+            }
+        }
+
+        return next;
+    }
+
+    private void run(final Job job) {
+
+        try {
+
+            final MasaccioFace[] faces = job.mDetector.process(job.mBitmap);
+
+            if (faces == FaceDetectionEngine.SKIPPED) {
+
+                // Not a result, so that the bitmap can be analyzed again later
+                job.mDropped = true;
+
+            } else {
+
+                job.mFaces = faces;
+            }
+
+        } catch (final OutOfMemoryError e) {
+
+            // Treat it as a dropped job, so that it can be retried later
+            job.mDropped = true;
+
+        } catch (final RuntimeException e) {
+
+            // A failing engine must not kill the worker, nor have its result cached
+            Log.w(LOG_TAG, "face detection failed", e);
+
+            job.mDropped = true;
+
+        } finally {
+
+            synchronized (this) {
+
+                mBytesInUse -= job.mCost;
+
+                if (!job.mCapabilities.isThreadSafe()) {
+
+                    mBusyDetectors.remove(job.mDetector);
+                }
+
+                notifyAll();
+            }
+
+            job.complete();
+        }
+    }
+
+    private Job take() throws InterruptedException {
+
+        synchronized (this) {
+
+            while (true) {
+
+                final Job job = peekRunnable();
+
+                // A job larger than the whole budget is admitted when nothing else is running
+                if ((job != null) && (((mBytesInUse + job.mCost) <= mBudget) || (mBytesInUse
+                        == 0))) {
+
+                    mQueue.remove(job);
+
+                    mQueuedBytes -= job.mCost;
+
+                    acquire(job);
+
+                    return job;
+                }
+
+                wait();
+            }
+        }
+    }
+
+    interface Callback {
+
+        void onDetectionComplete(Job job);
+    }
+
+    class Job implements Comparable<Job> {
+
+        private final Bitmap mBitmap;
+
+        private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>(1);
+
+        private final DetectorCapabilities mCapabilities;
+
+        private final long mCost;
+
+        private final FaceDetectionEngine mDetector;
+
+        private final int mWidth;
+
+        private boolean mDone;
+
+        private volatile boolean mDropped;
+
+        private volatile MasaccioFace[] mFaces;
+
+        private int mPriority;
+
+        private ArrayList<Bitmap> mRecycledBitmaps;
+
+        private long mSequence;
+
+        private Job(final FaceDetectionEngine detector, final Bitmap bitmap, final int priority,
+                final Callback callback) {
+
+            mDetector = detector;
+            mCapabilities = DetectorCapabilities.of(detector);
+            mBitmap = bitmap;
+            mPriority = priority;
+            mCost = getCost(bitmap);
+            mWidth = bitmap.getWidth();
+
+            if (callback != null) {
+
+                mCallbacks.add(callback);
+            }
+        }
+
+        @Override
+        public int compareTo(final Job another) {
+
+            if (mPriority != another.mPriority) {
+
+                return (mPriority < another.mPriority) ? -1 : 1;
+            }
+
+            // Run the cheaper detections first, so that more requests are served sooner
+            final int costOrder =
+                    mCapabilities.getCostClass().compareTo(another.mCapabilities.getCostClass());
+
+            if (costOrder != 0) {
+
+                return costOrder;
+            }
+
+            return (mSequence < another.mSequence) ? -1 : ((mSequence == another.mSequence) ? 0
+                    : 1);
+        }
+
+        public Bitmap getBitmap() {
+
+            return mBitmap;
+        }
+
+        public MasaccioFace[] getFaces() {
+
+            return mFaces;
+        }
+
+        /**
+         * Returns the width of the analyzed bitmap, which may be recycled once the job is done.
+         */
+        public int getWidth() {
+
+            return mWidth;
+        }
+
+        /**
+         * Returns whether the job was dropped or its detector failed, so that it has no result to
+         * be cached.
+         */
+        public boolean isDropped() {
+
+            return mDropped;
+        }
+
+        public synchronized boolean isDone() {
+
+            return mDone;
+        }
+
+        /**
+         * Adds a callback to be notified in the main thread when the job is done, right away if it
+         * already is.
+         */
+        void addCallback(final Callback callback) {
+
+            synchronized (this) {
+
+                if (!mDone) {
+
+                    mCallbacks.add(callback);
+
+                    return;
+                }
+            }
+
+            post(callback);
+        }
+
+        /**
+         * Recycles the specified bitmap once the job is done, right away if it already is, so that
+         * a caller which stopped waiting does not recycle a bitmap still being analyzed.
+         */
+        void recycleWhenDone(final Bitmap bitmap) {
+
+            synchronized (this) {
+
+                if (!mDone) {
+
+                    if (mRecycledBitmaps == null) {
+
+                        mRecycledBitmaps = new ArrayList<Bitmap>(2);
+                    }
+
+                    mRecycledBitmaps.add(bitmap);
+
+                    return;
+                }
+            }
+
+            bitmap.recycle();
+        }
+
+        /**
+         * Waits for the job to be done for at most the specified time, and returns whether it is.
+         */
+        synchronized boolean await(final long timeoutMs) {
+
+            final long endTime = SystemClock.uptimeMillis() + timeoutMs;
+
+            long remainingMs = timeoutMs;
+
+            while (!mDone && (remainingMs > 0)) {
+
+                try {
+
+                    wait(remainingMs);
+
+                } catch (final InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+
+                    break;
+                }
+
+                remainingMs = endTime - SystemClock.uptimeMillis();
+            }
+
+            return mDone;
+        }
+
+        /**
+         * Waits for the job to be done, or for the calling thread to be interrupted.
+         */
+        private synchronized void await() {
+
+            while (!mDone) {
+
+                try {
+
+                    wait();
+
+                } catch (final InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+            }
+        }
+
+        private void complete() {
+
+            final ArrayList<Callback> callbacks;
+            final ArrayList<Bitmap> recycledBitmaps;
+
+            synchronized (this) {
+
+                mDone = true;
+
+                notifyAll();
+
+                callbacks = new ArrayList<Callback>(mCallbacks);
+
+                mCallbacks.clear();
+
+                recycledBitmaps = mRecycledBitmaps;
+
+                mRecycledBitmaps = null;
+            }
+
+            if (recycledBitmaps != null) {
+
+                for (final Bitmap bitmap : recycledBitmaps) {
+
+                    bitmap.recycle();
+                }
+            }
+
+            for (final Callback callback : callbacks) {
+
+                post(callback);
+            }
+        }
+
+        private void post(final Callback callback) {
+
+            mMainHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    callback.onDetectionComplete(Job.this);
+                }
+            });
+        }
+
+        private void drop() {
+
+            mDropped = true;
+
+            complete();
+        }
+    }
+
+    private class Worker extends Thread {
+
+        public Worker() {
+
+            super("Masaccio-Detection");
+        }
+
+        @Override
+        public void run() {
+
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (true) {
+
+                final Job job;
+
+                try {
+
+                    job = take();
+
+                } catch (final InterruptedException e) {
+
+                    return;
+                }
+
+                DetectionScheduler.this.run(job);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+import it.subito.masaccio.MasaccioImageView.FaceDetectionEngine;
+
+/**
+ * Hints describing a face detector, used by the library to schedule its executions and to cache
+ * its results.
+ *
+ * @see CapableFaceDetector
+ */
+public class DetectorCapabilities {
+
+    /**
+     * Capabilities assumed for the detectors not describing themselves.
+     */
+    public static final DetectorCapabilities DEFAULT =
+            new DetectorCapabilities(false, 0, CostClass.MODERATE);
+
+    private final CostClass mCostClass;
+
+    private final int mPreferredInputSize;
+
+    private final boolean mThreadSafe;
+
+    /**
+     * @param threadSafe         whether the detector can process several bitmaps concurrently.
+     * @param preferredInputSize the maximum size of the larger side of the analyzed bitmaps, or 0
+     *                           if the detector accepts any size.
+     * @param costClass          the cost of a detection.
+     */
+    public DetectorCapabilities(final boolean threadSafe, final int preferredInputSize,
+            final CostClass costClass) {
+
+        if ((preferredInputSize < 0) || (costClass == null)) {
+
+            throw new IllegalArgumentException("invalid capabilities");
+        }
+
+        mThreadSafe = threadSafe;
+        mPreferredInputSize = preferredInputSize;
+        mCostClass = costClass;
+    }
+
+    static DetectorCapabilities of(final FaceDetectionEngine detector) {
+
+        if (detector instanceof CapableFaceDetector) {
+
+            final DetectorCapabilities capabilities =
+                    ((CapableFaceDetector) detector).getCapabilities();
+
+            if (capabilities != null) {
+
+                return capabilities;
+            }
+        }
+
+        return DEFAULT;
+    }
+
+    public CostClass getCostClass() {
+
+        return mCostClass;
+    }
+
+    public int getPreferredInputSize() {
+
+        return mPreferredInputSize;
+    }
+
+    public boolean isThreadSafe() {
+
+        return mThreadSafe;
+    }
+
+    public enum CostClass {
+
+        /**
+         * A few milliseconds, like a lookup or a coarse estimation.
+         */
+        CHEAP,
+
+        /**
+         * Tens of milliseconds, like a detection on a reduced resolution image.
+         */
+        MODERATE,
+
+        /**
+         * Hundreds of milliseconds or more, like a full resolution detection or a remote call.
+         */
+        EXPENSIVE
+    }
+}
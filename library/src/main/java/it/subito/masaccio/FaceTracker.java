@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import android.graphics.Rect;
+
+import java.lang.ref.WeakReference;
+
+import it.subito.masaccio.engine.LuminanceImage;
+
+/**
+ * Tracker of the faces along a sequence of related frames, like slideshow previews or video
+ * thumbnails.
+ * <p/>
+ * Each frame is analyzed only inside a window around the faces found in the previous one, while
+ * a full detection is run on the first frame, on scene changes, when the tracked faces are lost
+ * or have low confidence, and periodically, so that new faces entering the scene are found.
+ */
+class FaceTracker {
+
+    private static final int MAX_TRACKED_FRAMES = 10;
+
+    private static final float MAX_WINDOW_AREA_RATIO = 0.5f;
+
+    private static final float MIN_CONFIDENCE = 0.4f;
+
+    private static final float MIN_WINDOW_SIZE_RATIO = 0.25f;
+
+    private static final float SCENE_CHANGE_THRESHOLD = 0.12f;
+
+    private static final int SIGNATURE_SIZE = 16;
+
+    private static final float WINDOW_EYES_RATIO = 3;
+
+    private WeakReference<Bitmap> mBitmap;
+
+    private MasaccioFace[] mFaces;
+
+    private int mFrameWidth;
+
+    private LuminanceImage mSignature;
+
+    private int mTrackedFrames;
+
+    private static boolean isSceneChange(final LuminanceImage previous,
+            final LuminanceImage current) {
+
+        if ((previous == null) || (previous.getWidth() != current.getWidth()) || (
+                previous.getHeight() != current.getHeight())) {
+
+            return true;
+        }
+
+        final byte[] previousData = previous.getData();
+        final byte[] currentData = current.getData();
+
+        final int length = currentData.length;
+
+        long difference = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            difference += Math.abs((previousData[i] & 0xff) - (currentData[i] & 0xff));
+        }
+
+        return ((float) difference / length / 255) > SCENE_CHANGE_THRESHOLD;
+    }
+
+    /**
+     * Returns the faces in the specified frame, or null if none are found. The same frame is not
+     * analyzed again, so that the crop can be applied any number of times.
+     */
+    public MasaccioFace[] process(final DefaultMasaccioFaceDetector detector,
+            final Bitmap bitmap) {
+
+        if ((mBitmap != null) && (mBitmap.get() == bitmap)) {
+
+            return mFaces;
+        }
+
+        mBitmap = new WeakReference<Bitmap>(bitmap);
+
+        final LuminanceImage signature =
+                LuminancePreprocessor.getLuminance(bitmap, SIGNATURE_SIZE);
+
+        final boolean isSceneChange = isSceneChange(mSignature, signature);
+
+        mSignature = signature;
+
+        final int width = bitmap.getWidth();
+
+        final MasaccioFace[] previousFaces =
+                MasaccioFace.scale(mFaces, (mFrameWidth > 0) ? (float) width / mFrameWidth : 1);
+
+        mFrameWidth = width;
+
+        if (!isSceneChange && (mTrackedFrames < MAX_TRACKED_FRAMES)) {
+
+            mTrackedFrames++;
+
+            if (previousFaces == null) {
+
+                // Nothing to track, and the scene is the same
+                return null;
+            }
+
+            final Rect window = getWindow(previousFaces, width, bitmap.getHeight());
+
+            if (window != null) {
+
+                final MasaccioFace[] faces = detector.processRegion(bitmap, window);
+
+                if (isConfident(faces)) {
+
+                    mFaces = faces;
+
+                    return faces;
+                }
+            }
+        }
+
+        mTrackedFrames = 0;
+
+        final MasaccioFace[] faces = detector.process(bitmap);
+
+        mFaces = faces;
+
+        return faces;
+    }
+
+    public void reset() {
+
+        mBitmap = null;
+        mFaces = null;
+        mSignature = null;
+        mFrameWidth = 0;
+        mTrackedFrames = 0;
+    }
+
+    /**
+     * Returns the region around the specified faces to be analyzed, or null if it is too large
+     * to save anything over a full detection.
+     */
+    private Rect getWindow(final MasaccioFace[] faces, final int width, final int height) {
+
+        final float minHalfSize = Math.min(width, height) * MIN_WINDOW_SIZE_RATIO / 2;
+
+        final PointF midPoint = new PointF();
+
+        float left = width;
+        float top = height;
+        float right = 0;
+        float bottom = 0;
+
+        for (final MasaccioFace face : faces) {
+
+            face.getMidPoint(midPoint);
+
+            final float halfSize =
+                    Math.max(minHalfSize, face.eyesDistance() * WINDOW_EYES_RATIO);
+
+            left = Math.min(left, midPoint.x - halfSize);
+            top = Math.min(top, midPoint.y - halfSize);
+            right = Math.max(right, midPoint.x + halfSize);
+            bottom = Math.max(bottom, midPoint.y + halfSize);
+        }
+
+        final Rect window = new Rect(Math.max(0, (int) left), Math.max(0, (int) top),
+                                     Math.min(width, (int) Math.ceil(right)),
+                                     Math.min(height, (int) Math.ceil(bottom)));
+
+        if ((window.width() <= 0) || (window.height() <= 0) || (
+                ((float) window.width() * window.height()) > (MAX_WINDOW_AREA_RATIO * width
+                        * height))) {
+
+            return null;
+        }
+
+        return window;
+    }
+
+    private boolean isConfident(final MasaccioFace[] faces) {
+
+        if (faces == null) {
+
+            return false;
+        }
+
+        for (final MasaccioFace face : faces) {
+
+            if (face.confidence() >= MIN_CONFIDENCE) {
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
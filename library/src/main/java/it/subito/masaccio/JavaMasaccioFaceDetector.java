@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+
+import it.subito.masaccio.DetectorCapabilities.CostClass;
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+import it.subito.masaccio.MasaccioImageView.FaceDetectionEngine;
+import it.subito.masaccio.engine.FaceRegion;
+import it.subito.masaccio.engine.HaarFaceDetector;
+import it.subito.masaccio.engine.LuminanceImage;
+
+/**
+ * Face detector running the pure Java {@link HaarFaceDetector} on a downscaled luminance copy of
+ * the bitmap, shared with the other analyzers through the {@link LuminancePreprocessor}.
+ * <p/>
+ * It can be used in place of the default Android detector through
+ * {@link MasaccioImageView#setFaceDetectionEngine(FaceDetectionEngine)}.
+ */
+public class JavaMasaccioFaceDetector implements CapableFaceDetector {
+
+    private static final int DEFAULT_ANALYSIS_SIZE = 320;
+
+    private final int mAnalysisSize;
+
+    private final DetectorCapabilities mCapabilities;
+
+    private final HaarFaceDetector mDetector;
+
+    public JavaMasaccioFaceDetector() {
+
+        this(new HaarFaceDetector(), DEFAULT_ANALYSIS_SIZE);
+    }
+
+    public JavaMasaccioFaceDetector(final HaarFaceDetector detector, final int analysisSize) {
+
+        mDetector = detector;
+        mAnalysisSize = analysisSize;
+        mCapabilities = new DetectorCapabilities(true, analysisSize, CostClass.MODERATE);
+    }
+
+    @Override
+    public DetectorCapabilities getCapabilities() {
+
+        return mCapabilities;
+    }
+
+    @Override
+    public MasaccioFace[] process(final Bitmap bitmap) {
+
+        final LuminanceImage image = LuminancePreprocessor.getLuminance(bitmap, mAnalysisSize);
+
+        final List<FaceRegion> regions = mDetector.detect(image);
+
+        if (regions.isEmpty()) {
+
+            return null;
+        }
+
+        final float inverseScale = (float) bitmap.getWidth() / image.getWidth();
+
+        final MasaccioFace[] faces = new MasaccioFace[regions.size()];
+
+        for (int i = 0; i < faces.length; i++) {
+
+            final FaceRegion region = regions.get(i);
+
+            faces[i] = new MasaccioFace(region.getMidPointX() * inverseScale,
+                                        region.getMidPointY() * inverseScale,
+                                        region.getEyesDistance() * inverseScale,
+                                        region.getConfidence());
+        }
+
+        return faces;
+    }
+}
@@ -0,0 +1,551 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import it.subito.masaccio.engine.LuminanceImage;
+
+/**
+ * Preprocessing stage shared by all the analyzers of a bitmap.
+ * <p/>
+ * The pixels are read only once, in row strips processed in parallel for the larger bitmaps, and
+ * box filtered into an 8-bit luminance buffer. The buffers of the last preprocessed bitmaps are
+ * kept, so that the following analyses of the same bitmap, at the same or a lower resolution, are
+ * derived from them without reading the pixels again. The buffers receiving the pixel strips
+ * are pooled.
+ * <p/>
+ * The copies given to the detection engines are downscaled and converted to the format they need
+ * by a single draw, so that the analyzers reading them, like the fingerprint, read only the
+ * downscaled pixels.
+ * <p/>
+ * The returned images are shared, and must not be modified.
+ */
+class LuminancePreprocessor {
+
+    // Larger side of the buffer computed on the first read, which covers the usual analysis sizes
+    private static final int BASE_SIZE = 320;
+
+    private static final int MAX_CACHED_IMAGES = 4;
+
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    // Smaller bitmaps are read by the calling thread only
+    private static final int MIN_PARALLEL_PIXELS = 512 * 512;
+
+    private static final int NO_GENERATION = -1;
+
+    private static final int STRIP_ROWS = 16;
+
+    private static final ArrayList<CachedImage> sCache = new ArrayList<CachedImage>();
+
+    private static final Object sMutex = new Object();
+
+    private static final ArrayList<int[]> sPool = new ArrayList<int[]>();
+
+    private static ExecutorService sExecutor;
+
+    private LuminancePreprocessor() {
+
+    }
+
+    /**
+     * Returns the luminance of the bitmap, downscaled so that its larger side is at most the
+     * specified size, or at full resolution if the size is not positive.
+     */
+    static LuminanceImage getLuminance(final Bitmap bitmap, final int maxSize) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final int largerSide = Math.max(width, height);
+
+        final int size = ((maxSize > 0) && (maxSize < largerSide)) ? maxSize : largerSide;
+
+        final int targetWidth = getScaledSize(width, size, largerSide);
+        final int targetHeight = getScaledSize(height, size, largerSide);
+
+        final int generation = getGeneration(bitmap);
+
+        LuminanceImage image = getCached(bitmap, generation);
+
+        if ((image == null) || (image.getWidth() < targetWidth) || (image.getHeight()
+                < targetHeight)) {
+
+            final int baseSize = Math.min(largerSide, Math.max(size, BASE_SIZE));
+
+            image = read(bitmap, getScaledSize(width, baseSize, largerSide),
+                         getScaledSize(height, baseSize, largerSide));
+
+            putCached(bitmap, generation, image);
+        }
+
+        if ((image.getWidth() == targetWidth) && (image.getHeight() == targetHeight)) {
+
+            return image;
+        }
+
+        return downsample(image, targetWidth, targetHeight);
+    }
+
+    /**
+     * Returns the bitmap downscaled so that its larger side is at most the specified size, or at
+     * full resolution if the size is not positive, and converted to the RGB 565 format with an
+     * even width, as required by {@link android.media.FaceDetector}, in a single pass. The bitmap
+     * itself is returned if it already fits, and null if the result would be too narrow.
+     */
+    static Bitmap get565(final Bitmap bitmap, final int maxSize) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final int largerSide = Math.max(width, height);
+
+        final int size = ((maxSize > 0) && (maxSize < largerSide)) ? maxSize : largerSide;
+
+        final int targetWidth = getScaledSize(width, size, largerSide) & ~0x1;
+        final int targetHeight = getScaledSize(height, size, largerSide);
+
+        if (targetWidth == 0) {
+
+            return null;
+        }
+
+        if ((bitmap.getConfig() == Bitmap.Config.RGB_565) && (targetWidth == width)
+                && (targetHeight == height)) {
+
+            return bitmap;
+        }
+
+        final Bitmap converted =
+                Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.RGB_565);
+
+        // At full resolution the odd column is dropped, rather than stretching the image
+        final int sourceWidth = (size == largerSide) ? targetWidth : width;
+
+        new Canvas(converted).drawBitmap(bitmap, new Rect(0, 0, sourceWidth, height),
+                                         new Rect(0, 0, targetWidth, targetHeight),
+                                         new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        return converted;
+    }
+
+    /**
+     * Returns the estimated memory retained by the cached and pooled buffers.
+     */
+    static long getFootprint() {
+
+        long bytes = 0;
+
+        synchronized (sMutex) {
+
+            for (final CachedImage cachedImage : sCache) {
+
+                bytes += cachedImage.mImage.getData().length;
+            }
+
+            for (final int[] buffer : sPool) {
+
+                bytes += buffer.length * 4L;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Evicts the least recently used buffers, so that only the specified ratio of them is kept.
+     */
+    static void trim(final float keepRatio) {
+
+        synchronized (sMutex) {
+
+            final int maxSize = (int) (sCache.size() * keepRatio);
+
+            while (sCache.size() > maxSize) {
+
+                sCache.remove(0);
+            }
+
+            if (keepRatio < 1) {
+
+                sPool.clear();
+            }
+        }
+    }
+
+    private static LuminanceImage downsample(final LuminanceImage image, final int targetWidth,
+            final int targetHeight) {
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        final byte[] data = image.getData();
+        final byte[] targetData = new byte[targetWidth * targetHeight];
+
+        final int[] columns = getBins(width, targetWidth);
+        final int[] columnCounts = getBinCounts(columns, targetWidth);
+
+        final int[] sums = new int[targetWidth];
+
+        for (int ty = 0; ty < targetHeight; ty++) {
+
+            final int top = (ty * height) / targetHeight;
+            final int bottom = Math.max(top + 1, ((ty + 1) * height) / targetHeight);
+
+            Arrays.fill(sums, 0);
+
+            for (int y = top; y < bottom; y++) {
+
+                final int offset = y * width;
+
+                for (int x = 0; x < width; x++) {
+
+                    sums[columns[x]] += data[offset + x] & 0xff;
+                }
+            }
+
+            fillRow(targetData, ty * targetWidth, sums, columnCounts, bottom - top);
+        }
+
+        return new LuminanceImage(targetWidth, targetHeight, targetData);
+    }
+
+    private static void fillRow(final byte[] data, final int offset, final int[] sums,
+            final int[] columnCounts, final int rowCount) {
+
+        for (int tx = 0; tx < sums.length; tx++) {
+
+            data[offset + tx] = (byte) (sums[tx] / (columnCounts[tx] * rowCount));
+        }
+    }
+
+    private static int[] getBinCounts(final int[] bins, final int binCount) {
+
+        final int[] counts = new int[binCount];
+
+        for (final int bin : bins) {
+
+            counts[bin]++;
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the target index each source index is accumulated into.
+     */
+    private static int[] getBins(final int size, final int targetSize) {
+
+        final int[] bins = new int[size];
+
+        for (int i = 0; i < size; i++) {
+
+            bins[i] = (int) (((long) i * targetSize) / size);
+        }
+
+        return bins;
+    }
+
+    private static LuminanceImage getCached(final Bitmap bitmap, final int generation) {
+
+        if (generation == NO_GENERATION) {
+
+            return null;
+        }
+
+        synchronized (sMutex) {
+
+            final Iterator<CachedImage> iterator = sCache.iterator();
+
+            while (iterator.hasNext()) {
+
+                final CachedImage cachedImage = iterator.next();
+
+                final Bitmap cachedBitmap = cachedImage.mBitmap.get();
+
+                if (cachedBitmap == null) {
+
+                    iterator.remove();
+
+                } else if (cachedBitmap == bitmap) {
+
+                    if (cachedImage.mGeneration != generation) {
+
+                        iterator.remove();
+
+                        return null;
+                    }
+
+                    // Move the entry to the most recently used position
+                    iterator.remove();
+                    sCache.add(cachedImage);
+
+                    return cachedImage.mImage;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static ExecutorService getExecutor() {
+
+        synchronized (sMutex) {
+
+            if (sExecutor == null) {
+
+                sExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                         new PreprocessThreadFactory());
+            }
+
+            return sExecutor;
+        }
+    }
+
+    /**
+     * Returns the identifier of the bitmap content, or {@link #NO_GENERATION} if a change of the
+     * content cannot be detected.
+     */
+    private static int getGeneration(final Bitmap bitmap) {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+
+            return bitmap.getGenerationId();
+        }
+
+        return bitmap.isMutable() ? NO_GENERATION : 0;
+    }
+
+    private static int getScaledSize(final int size, final int maxSize, final int largerSide) {
+
+        return Math.max(1, Math.round(((float) size * maxSize) / largerSide));
+    }
+
+    private static int[] obtainBuffer(final int size) {
+
+        synchronized (sMutex) {
+
+            for (int i = sPool.size() - 1; i >= 0; i--) {
+
+                if (sPool.get(i).length >= size) {
+
+                    return sPool.remove(i);
+                }
+            }
+        }
+
+        return new int[size];
+    }
+
+    private static void putCached(final Bitmap bitmap, final int generation,
+            final LuminanceImage image) {
+
+        if (generation == NO_GENERATION) {
+
+            return;
+        }
+
+        synchronized (sMutex) {
+
+            final Iterator<CachedImage> iterator = sCache.iterator();
+
+            while (iterator.hasNext()) {
+
+                final Bitmap cachedBitmap = iterator.next().mBitmap.get();
+
+                if ((cachedBitmap == null) || (cachedBitmap == bitmap)) {
+
+                    iterator.remove();
+                }
+            }
+
+            if (sCache.size() >= MAX_CACHED_IMAGES) {
+
+                sCache.remove(0);
+            }
+
+            sCache.add(new CachedImage(bitmap, generation, image));
+        }
+    }
+
+    /**
+     * Reads the pixels of the bitmap once and box filters their luminance into an image of the
+     * specified size, splitting the rows among the available cores.
+     */
+    private static LuminanceImage read(final Bitmap bitmap, final int targetWidth,
+            final int targetHeight) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final byte[] data = new byte[targetWidth * targetHeight];
+
+        final int[] columns = getBins(width, targetWidth);
+        final int[] columnCounts = getBinCounts(columns, targetWidth);
+
+        final int stripCount;
+
+        if (((long) width * height) < MIN_PARALLEL_PIXELS) {
+
+            stripCount = 1;
+
+        } else {
+
+            stripCount = Math.min(targetHeight, Runtime.getRuntime().availableProcessors());
+        }
+
+        final ArrayList<Future<?>> futures = new ArrayList<Future<?>>(stripCount - 1);
+
+        for (int i = 1; i < stripCount; i++) {
+
+            final int firstRow = (i * targetHeight) / stripCount;
+            final int lastRow = ((i + 1) * targetHeight) / stripCount;
+
+            futures.add(getExecutor().submit(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    readRows(bitmap, data, targetWidth, targetHeight, columns, columnCounts,
+                             firstRow, lastRow);
+                }
+            }));
+        }
+
+        readRows(bitmap, data, targetWidth, targetHeight, columns, columnCounts, 0,
+                 targetHeight / stripCount);
+
+        try {
+
+            for (final Future<?> future : futures) {
+
+                future.get();
+            }
+
+        } catch (final InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException(e);
+
+        } catch (final ExecutionException e) {
+
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return new LuminanceImage(targetWidth, targetHeight, data);
+    }
+
+    private static void readRows(final Bitmap bitmap, final byte[] data, final int targetWidth,
+            final int targetHeight, final int[] columns, final int[] columnCounts,
+            final int firstRow, final int lastRow) {
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        final int[] pixels = obtainBuffer(width * STRIP_ROWS);
+        final int[] sums = new int[targetWidth];
+
+        try {
+
+            for (int ty = firstRow; ty < lastRow; ty++) {
+
+                final int top = (ty * height) / targetHeight;
+                final int bottom = Math.max(top + 1, ((ty + 1) * height) / targetHeight);
+
+                Arrays.fill(sums, 0);
+
+                for (int y = top; y < bottom; y += STRIP_ROWS) {
+
+                    final int rowCount = Math.min(STRIP_ROWS, bottom - y);
+
+                    bitmap.getPixels(pixels, 0, width, 0, y, width, rowCount);
+
+                    for (int row = 0; row < rowCount; row++) {
+
+                        final int offset = row * width;
+
+                        for (int x = 0; x < width; x++) {
+
+                            sums[columns[x]] += LuminanceImage.getLuminance(pixels[offset + x]);
+                        }
+                    }
+                }
+
+                fillRow(data, ty * targetWidth, sums, columnCounts, bottom - top);
+            }
+
+        } finally {
+
+            releaseBuffer(pixels);
+        }
+    }
+
+    private static void releaseBuffer(final int[] buffer) {
+
+        synchronized (sMutex) {
+
+            if (sPool.size() < MAX_POOLED_BUFFERS) {
+
+                sPool.add(buffer);
+            }
+        }
+    }
+
+    private static class CachedImage {
+
+        private final WeakReference<Bitmap> mBitmap;
+
+        private final int mGeneration;
+
+        private final LuminanceImage mImage;
+
+        private CachedImage(final Bitmap bitmap, final int generation,
+                final LuminanceImage image) {
+
+            mBitmap = new WeakReference<Bitmap>(bitmap);
+            mGeneration = generation;
+            mImage = image;
+        }
+    }
+
+    private static class PreprocessThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, "Masaccio-Preprocess");
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
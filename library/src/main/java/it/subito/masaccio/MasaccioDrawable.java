@@ -0,0 +1,404 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.view.animation.Interpolator;
+import android.view.animation.LinearInterpolator;
+
+import it.subito.masaccio.DetectionScheduler.Job;
+
+/**
+ * Drawable cropping a bitmap around its faces, and optionally zooming over them, without the need
+ * of a {@link MasaccioImageView}.
+ * <p/>
+ * The bitmap fills the drawable bounds, like the {@code centerCrop} scale type, while the crop
+ * is moved towards the face with the highest confidence. The matrix is applied at draw time, so
+ * that the drawable can be drawn directly onto any canvas, like the one of a custom list row.
+ */
+public class MasaccioDrawable extends Drawable implements Animatable {
+
+    private final Bitmap mBitmap;
+
+    private final float[] mDrawCoeffs = new float[9];
+
+    private final Matrix mDrawMatrix = new Matrix();
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private long mAnimationDuration;
+
+    private boolean mCyclicAnimation;
+
+    private Job mDetection;
+
+    private float[] mEndCoeffs;
+
+    private float mEndScale = 1;
+
+    private MasaccioFace[] mFaces;
+
+    private float mFraction;
+
+    private Interpolator mInterpolator = new LinearInterpolator();
+
+    private MatrixPath mMatrixPath;
+
+    private boolean mRunning;
+
+    private float mStartScale = 1;
+
+    private long mStartTime;
+
+    public MasaccioDrawable(final Bitmap bitmap) {
+
+        this(bitmap, null);
+    }
+
+    public MasaccioDrawable(final Bitmap bitmap, final MasaccioFace[] faces) {
+
+        if (bitmap == null) {
+
+            throw new IllegalArgumentException("the bitmap cannot be null");
+        }
+
+        mBitmap = bitmap;
+        mFaces = faces;
+    }
+
+    /**
+     * Detects the faces of the bitmap in background, through the detector shared with the views,
+     * and moves the crop towards them once done. The faces already detected are used right away.
+     */
+    public void detectFaces() {
+
+        final DefaultMasaccioFaceDetector faceDetector = MasaccioImageView.getSharedFaceDetector();
+
+        final MasaccioFace[] stored = faceDetector.getFaces(mBitmap);
+
+        if (stored != null) {
+
+            mDetection = null;
+
+            setFaces(stored);
+
+            return;
+        }
+
+        mDetection = faceDetector.detectAsync(mBitmap, DetectionScheduler.PRIORITY_VISIBLE,
+                                              new DetectionScheduler.Callback() {
+
+                                                  @Override
+                                                  public void onDetectionComplete(
+                                                          final Job job) {
+
+                                                      if ((mDetection == job)
+                                                              && !job.isDropped()) {
+
+                                                          mDetection = null;
+
+                                                          setFaces(faceDetector.getFaces(
+                                                                  mBitmap));
+                                                      }
+                                                  }
+                                              });
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+
+        final Rect bounds = getBounds();
+
+        if ((bounds.width() <= 0) || (bounds.height() <= 0)) {
+
+            return;
+        }
+
+        if (mEndCoeffs == null) {
+
+            updateCrop();
+        }
+
+        if (mMatrixPath == null) {
+
+            // The scale may have changed since the start, leaving nothing to animate
+            mRunning = false;
+        }
+
+        if (mRunning) {
+
+            final long now = SystemClock.uptimeMillis();
+
+            final long duration = mAnimationDuration;
+
+            long elapsedTime = now - mStartTime;
+
+            if (elapsedTime >= duration) {
+
+                if (mCyclicAnimation) {
+
+                    mStartTime = now;
+
+                    elapsedTime = 0;
+
+                } else {
+
+                    mRunning = false;
+
+                    elapsedTime = duration;
+                }
+            }
+
+            mFraction = (float) elapsedTime / duration;
+
+            if (mRunning) {
+
+                invalidateSelf();
+            }
+        }
+
+        final float[] coeffs = mDrawCoeffs;
+
+        if (mMatrixPath != null) {
+
+            mMatrixPath.getCoeffs(mFraction, coeffs);
+
+        } else {
+
+            System.arraycopy(mEndCoeffs, 0, coeffs, 0, coeffs.length);
+        }
+
+        final Matrix matrix = mDrawMatrix;
+
+        matrix.setValues(coeffs);
+
+        final int saveCount = canvas.save();
+
+        canvas.clipRect(bounds);
+        canvas.drawBitmap(mBitmap, matrix, mPaint);
+
+        canvas.restoreToCount(saveCount);
+    }
+
+    public Bitmap getBitmap() {
+
+        return mBitmap;
+    }
+
+    public MasaccioFace[] getFaces() {
+
+        return mFaces;
+    }
+
+    /**
+     * Sets the faces the crop is moved towards, or null to center it.
+     */
+    public void setFaces(final MasaccioFace[] faces) {
+
+        mFaces = ((faces != null) && (faces.length > 0)) ? faces : null;
+
+        invalidateCrop();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getOpacity() {
+
+        // The bitmap always covers the whole bounds
+        return (mBitmap.hasAlpha() || (mPaint.getAlpha() < 255)) ? PixelFormat.TRANSLUCENT
+                : PixelFormat.OPAQUE;
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return mRunning;
+    }
+
+    @Override
+    public void setAlpha(final int alpha) {
+
+        mPaint.setAlpha(alpha);
+
+        invalidateSelf();
+    }
+
+    public void setAnimationDuration(final long durationMs) {
+
+        mAnimationDuration = durationMs;
+
+        invalidateCrop();
+    }
+
+    public void setAnimationInterpolator(final Interpolator interpolator) {
+
+        mInterpolator = (interpolator != null) ? interpolator : new LinearInterpolator();
+
+        invalidateCrop();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter cf) {
+
+        mPaint.setColorFilter(cf);
+
+        invalidateSelf();
+    }
+
+    public void setCyclicAnimation(final boolean isCyclic) {
+
+        mCyclicAnimation = isCyclic;
+    }
+
+    /**
+     * Sets the zoom at the start and at the end of the animation, relative to the crop filling
+     * the bounds. The end one is applied also when no animation is set.
+     */
+    public void setScale(final float startScale, final float endScale) {
+
+        if ((startScale < 1) || (endScale < 1)) {
+
+            throw new IllegalArgumentException("the scale cannot be less than 1");
+        }
+
+        mStartScale = startScale;
+        mEndScale = endScale;
+
+        invalidateCrop();
+    }
+
+    /**
+     * Starts the animation from the start zoom to the end one, if a duration is set and the two
+     * zooms differ.
+     */
+    @Override
+    public void start() {
+
+        if ((mAnimationDuration <= 0) || (mStartScale == mEndScale)) {
+
+            return;
+        }
+
+        mFraction = 0;
+        mStartTime = SystemClock.uptimeMillis();
+        mRunning = true;
+
+        invalidateSelf();
+    }
+
+    /**
+     * Stops the animation, keeping the current crop.
+     */
+    @Override
+    public void stop() {
+
+        mRunning = false;
+    }
+
+    @Override
+    protected void onBoundsChange(final Rect bounds) {
+
+        super.onBoundsChange(bounds);
+
+        mEndCoeffs = null;
+    }
+
+    private float[] getCropCoeffs(final Rect bounds, final PointF focusPoint, final float scale) {
+
+        final int imageWidth = mBitmap.getWidth();
+        final int imageHeight = mBitmap.getHeight();
+
+        final float frameWidth = bounds.width();
+        final float frameHeight = bounds.height();
+
+        final float scaleFactor =
+                Math.max(frameWidth / imageWidth, frameHeight / imageHeight) * scale;
+
+        final float scaledWidth = imageWidth * scaleFactor;
+        final float scaledHeight = imageHeight * scaleFactor;
+
+        final float[] offsets = new float[2];
+
+        MasaccioImageView.getFaceOffsets(focusPoint, offsets, scaleFactor, scaledWidth,
+                                         scaledHeight, scaledWidth - frameWidth,
+                                         scaledHeight - frameHeight);
+
+        final Matrix matrix = new Matrix();
+
+        matrix.setScale(scaleFactor, scaleFactor);
+        matrix.postTranslate(bounds.left - offsets[0], bounds.top - offsets[1]);
+
+        final float[] coeffs = new float[9];
+
+        matrix.getValues(coeffs);
+
+        return coeffs;
+    }
+
+    private void invalidateCrop() {
+
+        mEndCoeffs = null;
+
+        invalidateSelf();
+    }
+
+    private void updateCrop() {
+
+        final Rect bounds = getBounds();
+
+        final MasaccioFace[] faces = mFaces;
+
+        final PointF focusPoint =
+                (faces != null) ? MasaccioImageView.getFocusPoint(faces) : null;
+
+        final float[] endCoeffs = getCropCoeffs(bounds, focusPoint, mEndScale);
+
+        if ((mAnimationDuration > 0) && (mStartScale != mEndScale)) {
+
+            final float[] startCoeffs = getCropCoeffs(bounds, focusPoint, mStartScale);
+
+            mMatrixPath = MatrixPath.compile(new float[][]{startCoeffs, endCoeffs}, mInterpolator,
+                                             mAnimationDuration);
+
+        } else {
+
+            mMatrixPath = null;
+        }
+
+        mEndCoeffs = endCoeffs;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.PointF;
+import android.media.FaceDetector.Face;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Compact and immutable description of a detected face, expressed in the pixel coordinates of the
+ * analyzed image.
+ * <p/>
+ * Unlike {@link Face}, instances can be created, scaled and parceled, so that detection results
+ * can be saved, restored or computed by other means.
+ */
+public class MasaccioFace implements Parcelable {
+
+    public static final Creator<MasaccioFace> CREATOR = new Creator<MasaccioFace>() {
+
+        @Override
+        public MasaccioFace createFromParcel(final Parcel source) {
+
+            return new MasaccioFace(source.readFloat(), source.readFloat(), source.readFloat(),
+                                    source.readFloat());
+        }
+
+        @Override
+        public MasaccioFace[] newArray(final int size) {
+
+            return new MasaccioFace[size];
+        }
+    };
+
+    private final float mConfidence;
+
+    private final float mEyesDistance;
+
+    private final float mMidPointX;
+
+    private final float mMidPointY;
+
+    public MasaccioFace(final float midPointX, final float midPointY, final float eyesDistance,
+            final float confidence) {
+
+        mMidPointX = midPointX;
+        mMidPointY = midPointY;
+        mEyesDistance = eyesDistance;
+        mConfidence = confidence;
+    }
+
+    public static MasaccioFace from(final Face face) {
+
+        final PointF midPoint = new PointF();
+
+        face.getMidPoint(midPoint);
+
+        return new MasaccioFace(midPoint.x, midPoint.y, face.eyesDistance(), face.confidence());
+    }
+
+    public static MasaccioFace[] from(final Face[] faces) {
+
+        if (faces == null) {
+
+            return null;
+        }
+
+        final MasaccioFace[] masaccioFaces = new MasaccioFace[faces.length];
+
+        for (int i = 0; i < faces.length; i++) {
+
+            masaccioFaces[i] = from(faces[i]);
+        }
+
+        return masaccioFaces;
+    }
+
+    /**
+     * Returns the faces mapped into an image scaled by the specified factor.
+     */
+    public static MasaccioFace[] scale(final MasaccioFace[] faces, final float scale) {
+
+        if ((faces == null) || (scale == 1)) {
+
+            return faces;
+        }
+
+        final MasaccioFace[] scaled = new MasaccioFace[faces.length];
+
+        for (int i = 0; i < faces.length; i++) {
+
+            final MasaccioFace face = faces[i];
+
+            scaled[i] = new MasaccioFace(face.mMidPointX * scale, face.mMidPointY * scale,
+                                         face.mEyesDistance * scale, face.mConfidence);
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Returns the faces mapped into an image scaled by the specified horizontal and vertical
+     * factors, where the eyes distance follows the horizontal one.
+     */
+    public static MasaccioFace[] scale(final MasaccioFace[] faces, final float scaleX,
+            final float scaleY) {
+
+        if ((faces == null) || ((scaleX == 1) && (scaleY == 1))) {
+
+            return faces;
+        }
+
+        final MasaccioFace[] scaled = new MasaccioFace[faces.length];
+
+        for (int i = 0; i < faces.length; i++) {
+
+            final MasaccioFace face = faces[i];
+
+            scaled[i] = new MasaccioFace(face.mMidPointX * scaleX, face.mMidPointY * scaleY,
+                                         face.mEyesDistance * scaleX, face.mConfidence);
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Returns the faces mapped into an image whose origin is at the specified offset.
+     */
+    public static MasaccioFace[] translate(final MasaccioFace[] faces, final float dx,
+            final float dy) {
+
+        if ((faces == null) || ((dx == 0) && (dy == 0))) {
+
+            return faces;
+        }
+
+        final MasaccioFace[] translated = new MasaccioFace[faces.length];
+
+        for (int i = 0; i < faces.length; i++) {
+
+            final MasaccioFace face = faces[i];
+
+            translated[i] = new MasaccioFace(face.mMidPointX + dx, face.mMidPointY + dy,
+                                             face.mEyesDistance, face.mConfidence);
+        }
+
+        return translated;
+    }
+
+    public float confidence() {
+
+        return mConfidence;
+    }
+
+    @Override
+    public int describeContents() {
+
+        return 0;
+    }
+
+    public float eyesDistance() {
+
+        return mEyesDistance;
+    }
+
+    public void getMidPoint(final PointF point) {
+
+        point.set(mMidPointX, mMidPointY);
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+
+        dest.writeFloat(mMidPointX);
+        dest.writeFloat(mMidPointY);
+        dest.writeFloat(mEyesDistance);
+        dest.writeFloat(mConfidence);
+    }
+}
@@ -23,19 +23,32 @@ import android.graphics.Matrix;
 import android.graphics.PointF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.media.FaceDetector;
 import android.media.FaceDetector.Face;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.Process;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
 import android.view.animation.Interpolator;
 import android.widget.ImageView;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.List;
 import java.util.WeakHashMap;
 
+import it.subito.masaccio.DetectionScheduler.Job;
+import it.subito.masaccio.DetectorCapabilities.CostClass;
+import it.subito.masaccio.engine.FocalPointIndex;
+
 public class MasaccioImageView extends ImageView {
 
     public static final int FLAG_IF_FACE = 0x10;
@@ -48,18 +61,52 @@ public class MasaccioImageView extends ImageView {
 
     public static final int FLAG_SQUARE = 0x4;
 
+    public static final int DEFAULT_ANALYSIS_SIZE = 512;
+
     private static final float FACE_POSITION_RATIO_X = 0.5f;
 
     private static final float FACE_POSITION_RATIO_Y = 0.5f;
 
+    private static final String IDENTITY_ID_PREFIX = "id:";
+
+    private static final String IDENTITY_KEY_PREFIX = "key:";
+
+    private static final String LOG_TAG = "Masaccio";
+
+    private static final float MAX_RATIO_ERROR = 0.01f;
+
+    private static final MasaccioFace[] NO_FACES = new MasaccioFace[0];
+
+    private static final long EXPENSIVE_DETECTION_DEADLINE_MS = 16;
+
+    private static final long REFINE_DURATION_MS = 300;
+
+    private static final float REFERENCE_FRAME_WIDTH = 1000;
+
+    private static final long TILE_PREFETCH_TIME_MS = 500;
+
+    private static final Interpolator sRefineInterpolator = new DecelerateInterpolator();
+
+    private static final SaliencyFaceDetector sSaliencyDetector = new SaliencyFaceDetector();
+
     private static final Object sMutex = new Object();
 
+    private static final WeakHashMap<FaceDetectionEngine,
+            WeakReference<DefaultMasaccioFaceDetector>> sEngineDetectors =
+            new WeakHashMap<FaceDetectionEngine, WeakReference<DefaultMasaccioFaceDetector>>();
+
     private static DefaultMasaccioFaceDetector sFaceDetector;
 
+    private static MasaccioFaceDetector sPlatformFaceDetector;
+
+    private static volatile FocalPointIndex sFocalPointIndex;
+
     public final StepInterpolator mDefaultInterpolator = new StepInterpolator();
 
     private final Matrix mAnimMatrix = new Matrix();
 
+    private final Matrix mPrefetchMatrix = new Matrix();
+
     private int mActivateDetectionFlags;
 
     private int mActivateMatrixFlags;
@@ -72,7 +119,26 @@ public class MasaccioImageView extends ImageView {
 
     private boolean mCyclicAnimation;
 
-    private Face[] mDetectedFaces;
+    private long mDetectionDeadline;
+
+    private boolean mDetectionSkipped;
+
+    private MasaccioFace[] mDetectedFaces;
+
+    // Scale from the bitmap the faces are detected on to the drawable
+    private float mDetectedFacesScale = 1;
+
+    private DefaultMasaccioFaceDetector mFaceDetector;
+
+    private FaceTracker mFaceTracker;
+
+    private boolean mForceDetection;
+
+    private boolean mFacesDetected;
+
+    private boolean mHasFocalPointKey;
+
+    private long mFocalPointKey;
 
     private long mDuration;
 
@@ -86,11 +152,30 @@ public class MasaccioImageView extends ImageView {
 
     private Interpolator mInterpolator;
 
+    private float[][] mKeyframes;
+
+    private MatrixPath mMatrixPath;
+
+    private String mImageKey;
+
+    private WeakReference<Bitmap> mImageKeyBitmap;
+
     private Handler mMessageHandler;
 
+    // Whether the running animation is a transition not to be repeated
+    private boolean mOneShotAnimation;
+
+    private Job mPendingDetection;
+
+    private boolean mRefineCrop;
+
     private ScaleType mOriginalScaleType;
 
-    private float[] mStartCoeffs;
+    private long mRestoredAnimationTime = -1;
+
+    private boolean mSaliencyFallback;
+
+    private SavedState mRestoredState;
 
     private float mStartScale;
 
@@ -100,6 +185,8 @@ public class MasaccioImageView extends ImageView {
 
     private float mStartY;
 
+    private boolean mVisitFaces;
+
     public MasaccioImageView(final Context context) {
 
         super(context);
@@ -118,17 +205,213 @@ public class MasaccioImageView extends ImageView {
         init(attrs, defStyle);
     }
 
+    /**
+     * Returns a detector running the Android SDK {@link android.media.FaceDetector} on the bitmap,
+     * whose faces are then stored by the shared detector, so that the views displaying the same
+     * bitmap do not analyze it again.
+     */
     public static MasaccioFaceDetector getFaceDetector() {
 
+        synchronized (sMutex) {
+
+            if (sPlatformFaceDetector == null) {
+
+                sPlatformFaceDetector = new PlatformFaceDetector();
+            }
+
+            return sPlatformFaceDetector;
+        }
+    }
+
+    /**
+     * Returns the detector caching the results of the shared detection engine.
+     */
+    static DefaultMasaccioFaceDetector getSharedFaceDetector() {
+
         synchronized (sMutex) {
 
             if (sFaceDetector == null) {
 
-                sFaceDetector = new DefaultMasaccioFaceDetector();
+                sFaceDetector = new DefaultMasaccioFaceDetector(new AdaptiveFaceDetector());
+            }
+
+            return sFaceDetector;
+        }
+    }
+
+    /**
+     * Returns all the face detectors currently in use, that is the shared one and the ones set
+     * to specific views.
+     */
+    static List<DefaultMasaccioFaceDetector> getFaceDetectors() {
+
+        final ArrayList<DefaultMasaccioFaceDetector> faceDetectors =
+                new ArrayList<DefaultMasaccioFaceDetector>();
+
+        synchronized (sMutex) {
+
+            if (sFaceDetector != null) {
+
+                faceDetectors.add(sFaceDetector);
+            }
+
+            for (final WeakReference<DefaultMasaccioFaceDetector> reference : sEngineDetectors
+                    .values()) {
+
+                final DefaultMasaccioFaceDetector faceDetector = reference.get();
+
+                if (faceDetector != null) {
+
+                    faceDetectors.add(faceDetector);
+                }
+            }
+        }
+
+        return faceDetectors;
+    }
+
+    /**
+     * Returns the detector caching the results of the specified engine, shared by all the views
+     * using it.
+     */
+    private static DefaultMasaccioFaceDetector getEngineDetector(
+            final FaceDetectionEngine engine) {
+
+        synchronized (sMutex) {
+
+            final WeakReference<DefaultMasaccioFaceDetector> reference =
+                    sEngineDetectors.get(engine);
+
+            DefaultMasaccioFaceDetector faceDetector =
+                    (reference != null) ? reference.get() : null;
+
+            if (faceDetector == null) {
+
+                faceDetector = new DefaultMasaccioFaceDetector(engine);
+
+                sEngineDetectors.put(engine,
+                                     new WeakReference<DefaultMasaccioFaceDetector>(faceDetector));
             }
+
+            return faceDetector;
+        }
+    }
+
+    /**
+     * Sets the detector actually analyzing the images, whose results are cached and shared by all
+     * the views. The default one is an {@link AdaptiveFaceDetector} based on the Android SDK
+     * {@link android.media.FaceDetector}.
+     * <p/>
+     * The detector can describe its thread safety, preferred input size and cost by implementing
+     * {@link CapableFaceDetector}.
+     *
+     * @see #setDetectionEngine(FaceDetectionEngine)
+     */
+    public static void setFaceDetectionEngine(final FaceDetectionEngine engine) {
+
+        getSharedFaceDetector().setEngine(engine);
+    }
+
+    /**
+     * Detects the faces of the specified bitmap at a resolution of at most
+     * {@link #DEFAULT_ANALYSIS_SIZE} pixels, and stores them under the specified key.
+     * <p/>
+     * The faces will be available to any view whose image key is the same, whatever the bitmap
+     * instance and resolution, provided that it has the same aspect ratio.
+     */
+    public static MasaccioFace[] detectFaces(final String imageKey, final Bitmap bitmap) {
+
+        return detectFaces(imageKey, bitmap, DEFAULT_ANALYSIS_SIZE);
+    }
+
+    public static MasaccioFace[] detectFaces(final String imageKey, final Bitmap bitmap,
+            final int maxSize) {
+
+        if (bitmap == null) {
+
+            return null;
         }
 
-        return sFaceDetector;
+        return getSharedFaceDetector().process(imageKey, bitmap, maxSize);
+    }
+
+    /**
+     * Stores the faces of the image identified by the specified key, and having the specified
+     * size.
+     */
+    public static void putFaces(final String imageKey, final int imageWidth, final int imageHeight,
+            final MasaccioFace[] faces) {
+
+        getSharedFaceDetector().putFaces(imageKey, imageWidth, imageHeight, faces);
+    }
+
+    /**
+     * Initializes the face detection in a background thread, so that the first images are not
+     * charged with the loading of the detector and its workers. It should be called during the
+     * application startup.
+     */
+    public static void warmUp() {
+
+        warmUp(null);
+    }
+
+    /**
+     * Initializes the face detection in a background thread, as {@link #warmUp()}, and loads the
+     * specified index of the precomputed focal points, which is set as soon as it is ready.
+     *
+     * @see #setFocalPointIndex(FocalPointIndex)
+     */
+    public static void warmUp(final File focalPointIndexFile) {
+
+        final Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                if (focalPointIndexFile != null) {
+
+                    try {
+
+                        final FocalPointIndex index = FocalPointIndex.open(focalPointIndexFile);
+
+                        index.preload();
+
+                        setFocalPointIndex(index);
+
+                    } catch (final IOException e) {
+
+                        Log.w(LOG_TAG, "cannot load the focal point index", e);
+                    }
+                }
+
+                getSharedFaceDetector().warmUp();
+            }
+
+        }, "Masaccio-WarmUp");
+
+        thread.start();
+    }
+
+    /**
+     * Sets the index of the precomputed focal points, which are used instead of detecting the
+     * faces of the images whose identifier is found in it.
+     *
+     * @see #setImageId(String)
+     */
+    public static void setFocalPointIndex(final FocalPointIndex index) {
+
+        sFocalPointIndex = index;
+    }
+
+    /**
+     * Queues the face detection of the specified bitmap with a lower priority than the one of the
+     * images shown by the views, so that the faces are ready when the bitmap is displayed.
+     */
+    public static void prefetchFaces(final Bitmap bitmap) {
+
+        getSharedFaceDetector().prefetch(bitmap);
     }
 
     private static boolean enabledDimensions(final int width, final int height, final int flags) {
@@ -200,6 +483,13 @@ public class MasaccioImageView extends ImageView {
 
             mInterpolator = mDefaultInterpolator;
         }
+
+        final float[][] keyframes = mKeyframes;
+
+        if (keyframes != null) {
+
+            mMatrixPath = MatrixPath.compile(keyframes, mInterpolator, mDuration);
+        }
     }
 
     public void setCenterFace(final boolean enabled) {
@@ -211,7 +501,7 @@ public class MasaccioImageView extends ImageView {
         if (enabled) {
 
             // Force instantiation
-            getFaceDetector();
+            getSharedFaceDetector();
         }
 
         if (isUpdate) {
@@ -220,16 +510,113 @@ public class MasaccioImageView extends ImageView {
         }
     }
 
+    /**
+     * Sets the maximum time the detection of the faces can block the display of a new image.
+     * <p/>
+     * Once the deadline expires, the image is cropped as if it contained no face, or around its
+     * most salient point if the saliency fallback is enabled, and smoothly moved to the final crop
+     * as soon as the detection completes in background. A value of 0, the default, disables the
+     * deadline, unless the detector declares an expensive cost class.
+     *
+     * @see #setSaliencyFallback(boolean)
+     */
+    public void setDetectionDeadline(final long deadlineMs) {
+
+        mDetectionDeadline = deadlineMs;
+    }
+
+    /**
+     * Enables the crop around the most salient point of the image while waiting for the faces
+     * detected after the deadline.
+     *
+     * @see #setDetectionDeadline(long)
+     */
+    public void setSaliencyFallback(final boolean enabled) {
+
+        mSaliencyFallback = enabled;
+    }
+
+    /**
+     * Enables the sequence mode, for views displaying a stream of related frames, like slideshow
+     * previews or video thumbnails: the faces are tracked from a frame to the next by analyzing
+     * only the region around them, while a full detection is run on scene changes.
+     */
+    public void setSequenceMode(final boolean enabled) {
+
+        if (enabled) {
+
+            if (mFaceTracker == null) {
+
+                mFaceTracker = new FaceTracker();
+            }
+
+        } else {
+
+            mFaceTracker = null;
+        }
+    }
+
+    /**
+     * Sets the detector analyzing the images of this view only, in place of the shared one. The
+     * results are cached separately, and shared only with the other views using the same
+     * detector. Set to null to use the shared detector again.
+     *
+     * @see #setFaceDetectionEngine(FaceDetectionEngine)
+     */
+    public void setDetectionEngine(final FaceDetectionEngine engine) {
+
+        if (engine instanceof DefaultMasaccioFaceDetector) {
+
+            throw new IllegalArgumentException("invalid detection engine: " + engine);
+        }
+
+        final DefaultMasaccioFaceDetector faceDetector =
+                (engine != null) ? getEngineDetector(engine) : null;
+
+        if (faceDetector != mFaceDetector) {
+
+            mFaceDetector = faceDetector;
+
+            if (mFaceTracker != null) {
+
+                mFaceTracker.reset();
+            }
+
+            applyCrop();
+        }
+    }
+
     public void setCyclicAnimation(final boolean isCyclic) {
 
         mCyclicAnimation = isCyclic;
     }
 
+    /**
+     * Enables the animation to visit all the detected faces, from left to right, before ending
+     * on the one with the highest confidence.
+     */
+    public void setVisitFaces(final boolean enabled) {
+
+        final boolean isUpdate = (mVisitFaces != enabled);
+
+        mVisitFaces = enabled;
+
+        if (isUpdate) {
+
+            applyCrop();
+        }
+    }
+
     public void setFaces(final Face[] faces) {
 
+        setFaces(MasaccioFace.from(faces));
+    }
+
+    public void setFaces(final MasaccioFace[] faces) {
+
         if ((faces != null) && (faces.length > 0)) {
 
-            mDetectedFaces = faces;
+            mDetectedFaces = MasaccioFace.scale(faces, 1 / mDetectedFacesScale);
 
         } else {
 
@@ -239,6 +626,94 @@ public class MasaccioImageView extends ImageView {
         applyCrop();
     }
 
+    /**
+     * Sets the identifier of the next images set into the view, used to look up their focal
+     * point in the index.
+     *
+     * @see #setFocalPointIndex(FocalPointIndex)
+     */
+    public void setImageId(final String imageId) {
+
+        if (imageId != null) {
+
+            mFocalPointKey = FocalPointIndex.getKey(imageId);
+            mHasFocalPointKey = true;
+
+        } else {
+
+            mHasFocalPointKey = false;
+        }
+    }
+
+    /**
+     * Sets the key identifying the source of the next image set into the view, so that the
+     * faces stored under it are used instead of analyzing the bitmap again. The key should not
+     * depend on the resolution the image is decoded at, so that the faces detected on a thumbnail
+     * apply to the full size image too.
+     * <p/>
+     * The key is bound to the first bitmap set after the call, and it is discarded as soon as a
+     * different bitmap is set without a new key.
+     */
+    public void setImageKey(final String imageKey) {
+
+        mImageKey = imageKey;
+        mImageKeyBitmap = null;
+    }
+
+    /**
+     * Computes and caches the crops of the current image for frames with the specified aspect
+     * ratios (height / width), so that the views with the same settings showing the image in
+     * differently shaped frames get their crop by a lookup, without any further computation.
+     */
+    public void precomputeCrops(final float... frameRatios) {
+
+        final Drawable drawable = getDrawable();
+
+        if ((drawable == null) || !isCropEnabled()) {
+
+            return;
+        }
+
+        if (mDetectionSkipped) {
+
+            // The faces are not relevant to the current frame, but may be to the other ones
+            mForceDetection = true;
+
+            try {
+
+                applyCrop();
+
+            } finally {
+
+                mForceDetection = false;
+            }
+        }
+
+        final int originalImageWidth = drawable.getIntrinsicWidth();
+        final int originalImageHeight = drawable.getIntrinsicHeight();
+
+        final MasaccioFace[] detectedFaces = getDrawableFaces();
+
+        if ((originalImageWidth <= 0) || (originalImageHeight <= 0) || (mOriginalScaleType
+                == ScaleType.MATRIX) || isFaceTour(detectedFaces)) {
+
+            // There is nothing that can be cached
+            return;
+        }
+
+        final PointF focusPoint = (detectedFaces != null) ? getFocusPoint(detectedFaces) : null;
+
+        final CropRunnable cropRunnable = new CropRunnable(originalImageWidth, originalImageHeight);
+
+        final float frameWidth = (getWidth() > 0) ? getWidth() : REFERENCE_FRAME_WIDTH;
+
+        for (final float frameRatio : frameRatios) {
+
+            cropRunnable.getMatrices(frameWidth, frameWidth * frameRatio, detectedFaces,
+                                     focusPoint);
+        }
+    }
+
     @Override
     public void setImageDrawable(final Drawable drawable) {
 
@@ -246,14 +721,30 @@ public class MasaccioImageView extends ImageView {
 
         if (drawable == null) {
 
+            mPendingDetection = null;
+
             setImageMatrix(new Matrix());
 
             return;
         }
 
+        mDetectedFacesScale = 1;
+
         if (drawable instanceof BitmapDrawable) {
 
             getDetectedFaces(((BitmapDrawable) drawable).getBitmap());
+
+        } else if (drawable instanceof TiledBitmapDrawable) {
+
+            // Detect faces on the low resolution preview and scale them up to the full image
+            final Bitmap preview = ((TiledBitmapDrawable) drawable).getPreviewBitmap();
+
+            getDetectedFaces(preview);
+
+            if (preview != null) {
+
+                mDetectedFacesScale = (float) drawable.getIntrinsicWidth() / preview.getWidth();
+            }
         }
 
         cropImage(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
@@ -295,19 +786,9 @@ public class MasaccioImageView extends ImageView {
 
         if ((now >= startTime) && (now < endTime)) {
 
-            final Interpolator interpolator = mInterpolator;
-
             final float[] coeffs = new float[9];
 
-            for (int i = 0; i < 9; i++) {
-
-                final float interpolation =
-                        interpolator.getInterpolation((float) (now - startTime) / duration);
-
-                final float start = mStartCoeffs[i];
-
-                coeffs[i] = start + (interpolation * (mEndCoeffs[i] - start));
-            }
+            getAnimationCoeffs((float) (now - startTime) / duration, coeffs);
 
             final Matrix matrix = mAnimMatrix;
 
@@ -319,7 +800,7 @@ public class MasaccioImageView extends ImageView {
 
         } else if ((startTime > 0) && (now >= endTime)) {
 
-            if (mCyclicAnimation) {
+            if (mCyclicAnimation && !mOneShotAnimation) {
 
                 mStartTime = System.currentTimeMillis();
 
@@ -335,6 +816,13 @@ public class MasaccioImageView extends ImageView {
             setImageMatrix(matrix);
         }
 
+        final Drawable drawable = getDrawable();
+
+        if (drawable instanceof TiledBitmapDrawable) {
+
+            updateTiles((TiledBitmapDrawable) drawable, now);
+        }
+
         super.onDraw(canvas);
     }
 
@@ -444,72 +932,228 @@ public class MasaccioImageView extends ImageView {
 
         if (changed) {
 
-            applyCrop();
+            if (mDetectionSkipped) {
+
+                // The faces may be relevant to the new frame
+                applyCrop();
+
+                return;
+            }
+
+            // The faces do not depend on the frame size, so there is no need to look them up again
+            final Drawable drawable = getDrawable();
+
+            if (drawable != null) {
+
+                cropImage(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+            }
         }
     }
 
-    private void applyCrop() {
+    @Override
+    protected Parcelable onSaveInstanceState() {
 
-        setImageDrawable(getDrawable());
-    }
+        final SavedState savedState = new SavedState(super.onSaveInstanceState());
 
-    private void cropImage(final int originalImageWidth, final int originalImageHeight) {
+        final Drawable drawable = getDrawable();
 
-        final Handler messageHandler = mMessageHandler;
+        final String imageIdentity = getImageIdentity();
 
-        if (messageHandler == null) {
+        // The faces can be restored only if the image they belong to can be recognized
+        if ((drawable != null) && mFacesDetected && (imageIdentity != null)) {
 
-            // We can't do anything right now.
-            return;
+            final MasaccioFace[] detectedFaces = getDrawableFaces();
+
+            savedState.mFaces = (detectedFaces != null) ? detectedFaces : NO_FACES;
+            savedState.mImageIdentity = imageIdentity;
+            savedState.mImageWidth = drawable.getIntrinsicWidth();
+            savedState.mImageHeight = drawable.getIntrinsicHeight();
         }
 
-        if (mCropRunnable != null) {
+        final long startTime = mStartTime;
 
-            messageHandler.removeCallbacks(mCropRunnable);
+        if (startTime > 0) {
+
+            savedState.mAnimationTime = System.currentTimeMillis() - startTime;
         }
 
-        if ((!mAutoFaceDetection && (mEndX == 0) && (mEndY == 0) && (mEndScale == 1)) || (
-                originalImageWidth <= 0) || (originalImageHeight <= 0)) {
+        return savedState;
+    }
 
-            final ScaleType scaleType = super.getScaleType();
-            final ScaleType originalScaleType = mOriginalScaleType;
+    @Override
+    protected void onRestoreInstanceState(final Parcelable state) {
 
-            if (scaleType != originalScaleType) {
+        if (!(state instanceof SavedState)) {
 
-                super.setScaleType(originalScaleType);
-            }
+            super.onRestoreInstanceState(state);
 
             return;
         }
 
-        mCropRunnable = new CropRunnable(originalImageWidth, originalImageHeight);
+        final SavedState savedState = (SavedState) state;
 
-        if (Looper.getMainLooper() == Looper.myLooper()) {
+        super.onRestoreInstanceState(savedState.getSuperState());
 
-            mCropRunnable.run();
+        mRestoredAnimationTime = savedState.mAnimationTime;
 
-        } else {
+        if (savedState.mFaces != null) {
 
-            messageHandler.post(mCropRunnable);
+            mRestoredState = savedState;
         }
-    }
 
-    private void getDefaultOffsets(final float[] offsets, final float maxOffsetX,
-            final float maxOffsetY) {
+        if (getDrawable() != null) {
 
-        offsets[0] = maxOffsetX / 2;
-        offsets[1] = maxOffsetY / 2;
-    }
+            applyCrop();
+        }
+    }
+
+    private void applyCrop() {
+
+        setImageDrawable(getDrawable());
+    }
+
+    private void cropImage(final int originalImageWidth, final int originalImageHeight) {
+
+        final Handler messageHandler = mMessageHandler;
+
+        if (messageHandler == null) {
+
+            // We can't do anything right now.
+            return;
+        }
+
+        if (mCropRunnable != null) {
+
+            messageHandler.removeCallbacks(mCropRunnable);
+        }
+
+        if (!isCropEnabled() || (originalImageWidth <= 0) || (originalImageHeight <= 0)) {
+
+            mRefineCrop = false;
+
+            final ScaleType scaleType = super.getScaleType();
+            final ScaleType originalScaleType = mOriginalScaleType;
+
+            if (scaleType != originalScaleType) {
+
+                super.setScaleType(originalScaleType);
+            }
+
+            return;
+        }
+
+        mCropRunnable = new CropRunnable(originalImageWidth, originalImageHeight);
+
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+
+            mCropRunnable.run();
+
+        } else {
+
+            messageHandler.post(mCropRunnable);
+        }
+    }
+
+    /**
+     * Returns whether the crop of an image of the specified size may depend on its faces, given
+     * the current frame and settings. The faces are irrelevant when the image has the same aspect
+     * ratio as the frame and it is scaled to fill it anyway, so that there is no room to move the
+     * crop towards them.
+     */
+    private boolean canFacesChangeCrop(final int imageWidth, final int imageHeight) {
+
+        final float frameWidth = getWidth();
+        final float frameHeight = getHeight();
+
+        if ((frameWidth <= 0) || (frameHeight <= 0)) {
+
+            // The frame is not known yet
+            return true;
+        }
+
+        final ScaleType scaleType = mOriginalScaleType;
+
+        if ((scaleType == ScaleType.CENTER) || (scaleType == ScaleType.CENTER_INSIDE) || (
+                scaleType == ScaleType.MATRIX)) {
+
+            // The original matrix differs from the one centered on the faces
+            return true;
+        }
+
+        final int matrixFlags = mActivateMatrixFlags;
+
+        if (hasAllFlags(matrixFlags, FLAG_NO_FACE) != hasAllFlags(matrixFlags, FLAG_IF_FACE)) {
+
+            // The matrix is applied only with or without faces
+            return true;
+        }
+
+        if (((mEndScale >= 0) && (mEndScale != 1)) || ((mAnimationDuration > 0) && mVisitFaces)) {
+
+            return true;
+        }
+
+        final float scaleFactor = Math.max(frameWidth / imageWidth, frameHeight / imageHeight);
+
+        return (Math.round((imageWidth * scaleFactor) - frameWidth) != 0) || (
+                Math.round((imageHeight * scaleFactor) - frameHeight) != 0);
+    }
+
+    private boolean isCropEnabled() {
+
+        return mAutoFaceDetection || (mEndX != 0) || (mEndY != 0) || (mEndScale != 1);
+    }
+
+    private void getAnimationCoeffs(final float input, final float[] coeffs) {
+
+        mMatrixPath.getCoeffs(input, coeffs);
+    }
+
+    static void getDefaultOffsets(final float[] offsets, final float maxOffsetX,
+            final float maxOffsetY) {
+
+        offsets[0] = maxOffsetX / 2;
+        offsets[1] = maxOffsetY / 2;
+    }
+
+    private String getImageKey(final Bitmap bitmap) {
+
+        final WeakReference<Bitmap> imageKeyBitmap = mImageKeyBitmap;
+
+        if (imageKeyBitmap == null) {
+
+            mImageKeyBitmap = new WeakReference<Bitmap>(bitmap);
+
+        } else if (imageKeyBitmap.get() != bitmap) {
+
+            // The key belongs to another image
+            mImageKey = null;
+        }
+
+        return mImageKey;
+    }
 
     private void getDetectedFaces(final Bitmap bitmap) {
 
+        mFacesDetected = false;
+        mDetectionSkipped = false;
+        mPendingDetection = null;
+
         if (bitmap == null) {
 
             // Do nothing
             return;
         }
 
-        final DefaultMasaccioFaceDetector faceDetector = sFaceDetector;
+        final String imageKey = getImageKey(bitmap);
+
+        if (getIndexedFaces(bitmap)) {
+
+            return;
+        }
+
+        final DefaultMasaccioFaceDetector faceDetector =
+                (mFaceDetector != null) ? mFaceDetector : sFaceDetector;
 
         if (faceDetector != null) {
 
@@ -518,9 +1162,68 @@ public class MasaccioImageView extends ImageView {
 
             if (enabledDimensions(width, height, mActivateDetectionFlags)) {
 
+                if (restoreFaces(bitmap)) {
+
+                    return;
+                }
+
+                if (imageKey != null) {
+
+                    final MasaccioFace[] keyedFaces =
+                            faceDetector.getFaces(imageKey, width, height);
+
+                    if (keyedFaces != null) {
+
+                        mDetectedFaces = (keyedFaces.length > 0) ? keyedFaces : null;
+                        mFacesDetected = true;
+
+                        faceDetector.putFaces(bitmap, keyedFaces);
+
+                        return;
+                    }
+                }
+
                 if (mAutoFaceDetection) {
 
-                    mDetectedFaces = faceDetector.process(bitmap);
+                    if (!mForceDetection && !canFacesChangeCrop(width, height)) {
+
+                        mDetectedFaces = null;
+                        mDetectionSkipped = true;
+
+                        return;
+                    }
+
+                    final FaceTracker faceTracker = mFaceTracker;
+
+                    if (faceTracker != null) {
+
+                        mDetectedFaces = faceTracker.process(faceDetector, bitmap);
+                        mFacesDetected = true;
+
+                        return;
+                    }
+
+                    final long deadline = getDetectionDeadline(faceDetector);
+
+                    if ((deadline > 0) && (Looper.getMainLooper() == Looper.myLooper())) {
+
+                        detectFacesUntilDeadline(faceDetector, imageKey, bitmap, deadline);
+
+                        return;
+                    }
+
+                    if (imageKey != null) {
+
+                        // Join the detection possibly started by the image loader
+                        mDetectedFaces =
+                                faceDetector.process(imageKey, bitmap, DEFAULT_ANALYSIS_SIZE);
+
+                    } else {
+
+                        mDetectedFaces = faceDetector.process(bitmap);
+                    }
+
+                    mFacesDetected = true;
 
                 } else {
 
@@ -534,72 +1237,221 @@ public class MasaccioImageView extends ImageView {
         }
     }
 
-    private void getFaceOffsets(final Face[] faces, final float[] offsets, final float scaleFactor,
-            final float width, final float height, final float maxOffsetX, final float maxOffsetY) {
+    /**
+     * Returns the detected faces mapped into the drawable.
+     */
+    private MasaccioFace[] getDrawableFaces() {
 
-        try {
+        return MasaccioFace.scale(mDetectedFaces, mDetectedFacesScale);
+    }
 
-            Face bestFace = null;
+    private long getDetectionDeadline(final DefaultMasaccioFaceDetector faceDetector) {
 
-            float maxConfidence = 0;
+        if ((mDetectionDeadline <= 0) && (faceDetector.getCapabilities().getCostClass()
+                == CostClass.EXPENSIVE)) {
 
-            for (final Face face : faces) {
+            // Never block the UI on an expensive detection
+            return EXPENSIVE_DETECTION_DEADLINE_MS;
+        }
 
-                final float faceConfidence = face.confidence();
+        return mDetectionDeadline;
+    }
 
-                if (faceConfidence > maxConfidence) {
+    private void detectFacesUntilDeadline(final DefaultMasaccioFaceDetector faceDetector,
+            final String imageKey, final Bitmap bitmap, final long deadlineMs) {
 
-                    maxConfidence = faceConfidence;
-                    bestFace = face;
-                }
+        final MasaccioFace[] stored = faceDetector.getFaces(bitmap);
+
+        if (stored != null) {
+
+            mDetectedFaces = (stored.length > 0) ? stored : null;
+            mFacesDetected = true;
+
+            return;
+        }
+
+        final DetectionScheduler.Callback callback = new DetectionScheduler.Callback() {
+
+            @Override
+            public void onDetectionComplete(final Job job) {
+
+                onDeadlineDetection(job);
             }
+        };
 
-            if (bestFace == null) {
+        Job job = null;
+
+        if (imageKey != null) {
+
+            // Join the detection possibly started by the image loader
+            job = faceDetector.joinAsync(imageKey, bitmap, DetectionScheduler.PRIORITY_VISIBLE,
+                                         callback);
+        }
+
+        if (job == null) {
+
+            job = faceDetector.detectAsync(bitmap, DetectionScheduler.PRIORITY_VISIBLE, callback);
+        }
+
+        if (job.await(deadlineMs)) {
 
-                getDefaultOffsets(offsets, maxOffsetX, maxOffsetY);
+            final MasaccioFace[] faces = faceDetector.getFaces(job, bitmap.getWidth());
+
+            if (faces != null) {
+
+                faceDetector.putFaces(bitmap, faces);
+
+                mDetectedFaces = (faces.length > 0) ? faces : null;
+                mFacesDetected = true;
 
                 return;
             }
 
-            final PointF midPoint = new PointF();
+        } else {
 
-            bestFace.getMidPoint(midPoint);
+            // Keep the result for the final crop
+            mPendingDetection = job;
+        }
 
-            final float scaledOffsetX =
-                    (midPoint.x * scaleFactor) - ((width - maxOffsetX) * FACE_POSITION_RATIO_X);
+        mDetectedFaces = mSaliencyFallback ? sSaliencyDetector.process(bitmap) : null;
+    }
 
-            final float scaledOffsetY =
-                    (midPoint.y * scaleFactor) - ((height - maxOffsetY) * FACE_POSITION_RATIO_Y);
+    private void onDeadlineDetection(final Job job) {
 
-            if (Math.round(maxOffsetX) >= 0) {
+        if (mPendingDetection != job) {
 
-                offsets[0] = Math.min(Math.max(0, scaledOffsetX), maxOffsetX);
+            // The image has changed in the meantime
+            return;
+        }
 
-            } else {
+        mPendingDetection = null;
 
-                offsets[0] = scaledOffsetX;
-            }
+        if (!job.isDropped()) {
+
+            // The faces are now stored, so the crop can be applied again
+            mRefineCrop = true;
+
+            applyCrop();
+        }
+    }
 
-            if (Math.round(maxOffsetY) >= 0) {
+    private boolean getIndexedFaces(final Bitmap bitmap) {
 
-                offsets[1] = Math.min(Math.max(0, scaledOffsetY), maxOffsetY);
+        final FocalPointIndex index = sFocalPointIndex;
 
-            } else {
+        if ((index == null) || !mHasFocalPointKey) {
 
-                offsets[1] = scaledOffsetY;
-            }
+            return false;
+        }
 
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
 
-        } catch (final Exception e) {
+        if (!enabledDimensions(width, height, mActivateDetectionFlags)) {
+
+            return false;
+        }
+
+        final int record = index.find(mFocalPointKey);
+
+        if ((record < 0) || (Math.abs(((float) width / height) - (
+                (float) index.getImageWidth(record) / index.getImageHeight(record)))
+                > MAX_RATIO_ERROR)) {
+
+            return false;
+        }
+
+        if (index.hasFace(record)) {
+
+            mDetectedFaces = new MasaccioFace[]{
+                    new MasaccioFace(index.getX(record) * width, index.getY(record) * height,
+                                     index.getEyesDistance(record) * width,
+                                     index.getConfidence(record))};
+
+        } else {
+
+            mDetectedFaces = null;
+        }
+
+        mFacesDetected = true;
+
+        return true;
+    }
+
+    static void getFaceOffsets(final PointF focusPoint, final float[] offsets,
+            final float scaleFactor, final float width, final float height, final float maxOffsetX,
+            final float maxOffsetY) {
+
+        if (focusPoint == null) {
 
             getDefaultOffsets(offsets, maxOffsetX, maxOffsetY);
+
+            return;
+        }
+
+        final float scaledOffsetX =
+                (focusPoint.x * scaleFactor) - ((width - maxOffsetX) * FACE_POSITION_RATIO_X);
+
+        final float scaledOffsetY =
+                (focusPoint.y * scaleFactor) - ((height - maxOffsetY) * FACE_POSITION_RATIO_Y);
+
+        if (Math.round(maxOffsetX) >= 0) {
+
+            offsets[0] = Math.min(Math.max(0, scaledOffsetX), maxOffsetX);
+
+        } else {
+
+            offsets[0] = scaledOffsetX;
+        }
+
+        if (Math.round(maxOffsetY) >= 0) {
+
+            offsets[1] = Math.min(Math.max(0, scaledOffsetY), maxOffsetY);
+
+        } else {
+
+            offsets[1] = scaledOffsetY;
         }
     }
 
-    private Matrix getOriginalMatrix(final int originalImageWidth, final int originalImageHeight) {
+    static PointF getFocusPoint(final MasaccioFace[] faces) {
 
-        final float frameWidth = getWidth();
-        final float frameHeight = getHeight();
+        try {
+
+            MasaccioFace bestFace = null;
+
+            float maxConfidence = 0;
+
+            for (final MasaccioFace face : faces) {
+
+                final float faceConfidence = face.confidence();
+
+                if (faceConfidence > maxConfidence) {
+
+                    maxConfidence = faceConfidence;
+                    bestFace = face;
+                }
+            }
+
+            if (bestFace == null) {
+
+                return null;
+            }
+
+            final PointF midPoint = new PointF();
+
+            bestFace.getMidPoint(midPoint);
+
+            return midPoint;
+
+        } catch (final Exception e) {
+
+            return null;
+        }
+    }
+
+    private Matrix getOriginalMatrix(final int originalImageWidth, final int originalImageHeight,
+            final float frameWidth, final float frameHeight) {
 
         final float fitHorizontallyScaleFactor = frameWidth / originalImageWidth;
         final float fitVerticallyScaleFactor = frameHeight / originalImageHeight;
@@ -710,6 +1562,16 @@ public class MasaccioImageView extends ImageView {
 
         mCyclicAnimation =
                 typedArray.getBoolean(R.styleable.MasaccioImageView_cyclic_animation, false);
+        mVisitFaces = typedArray.getBoolean(R.styleable.MasaccioImageView_visit_faces, false);
+        mDetectionDeadline =
+                typedArray.getInt(R.styleable.MasaccioImageView_detection_deadline, 0);
+        mSaliencyFallback =
+                typedArray.getBoolean(R.styleable.MasaccioImageView_saliency_fallback, false);
+
+        if (typedArray.getBoolean(R.styleable.MasaccioImageView_sequence_mode, false)) {
+
+            mFaceTracker = new FaceTracker();
+        }
 
         mOriginalScaleType = getScaleType();
         mMessageHandler = new Handler();
@@ -726,105 +1588,232 @@ public class MasaccioImageView extends ImageView {
         setCenterFace(autoFaceDetection);
     }
 
-    private void startMatrixAnimation(final Matrix start, final Matrix end, final long timeMs) {
+    private boolean restoreFaces(final Bitmap bitmap) {
 
-        setImageMatrix(start);
+        final SavedState restoredState = mRestoredState;
 
-        mStartCoeffs = new float[9];
-        start.getValues(mStartCoeffs);
+        if (restoredState == null) {
 
-        mEndCoeffs = new float[9];
-        end.getValues(mEndCoeffs);
+            return false;
+        }
 
-        mStartTime = System.currentTimeMillis();
-        mDuration = timeMs;
+        final String imageIdentity = getImageIdentity();
+
+        if (imageIdentity == null) {
+
+            // Possibly a placeholder: keep the saved faces for the image they belong to
+            return false;
+        }
+
+        // The saved faces apply only to the first identified image set after the restore
+        mRestoredState = null;
+
+        if (!imageIdentity.equals(restoredState.mImageIdentity)) {
+
+            return false;
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int savedWidth = restoredState.mImageWidth;
+        final int savedHeight = restoredState.mImageHeight;
+
+        // The bitmap may have been decoded again at a different resolution, but it must have the
+        // same aspect ratio
+        if ((savedWidth <= 0) || (savedHeight <= 0) || (Math.abs(
+                ((float) width / height) - ((float) savedWidth / savedHeight))
+                > MAX_RATIO_ERROR)) {
+
+            return false;
+        }
+
+        final MasaccioFace[] faces =
+                MasaccioFace.scale(restoredState.mFaces, (float) width / savedWidth);
+
+        mDetectedFaces = (faces.length > 0) ? faces : null;
+        mFacesDetected = true;
+
+        if (mFaceDetector != null) {
+
+            mFaceDetector.putFaces(bitmap, faces);
+
+        } else {
+
+            sFaceDetector.putFaces(bitmap, faces);
+        }
+
+        return true;
     }
 
-    public interface MasaccioFaceDetector {
+    /**
+     * Returns a string identifying the current image, built from its key or identifier, or null if
+     * none has been set.
+     */
+    private String getImageIdentity() {
 
-        public Face[] process(Bitmap bitmap);
+        if (mImageKey != null) {
+
+            return IDENTITY_KEY_PREFIX + mImageKey;
+        }
+
+        if (mHasFocalPointKey) {
+
+            return IDENTITY_ID_PREFIX + mFocalPointKey;
+        }
+
+        return null;
     }
 
-    private static class DefaultMasaccioFaceDetector implements MasaccioFaceDetector {
+    private boolean isFaceTour(final MasaccioFace[] faces) {
 
-        private static final int MAX_FACES = 4;
+        return mVisitFaces && (mAnimationDuration > 0) && (faces != null) && (faces.length > 1);
+    }
 
-        private static final Face[] NO_FACES = new Face[0];
+    private void startMatrixAnimation(final Matrix[] keyframes, final long timeMs) {
 
-        private final Map<Bitmap, Face[]> mFacesMap =
-                Collections.synchronizedMap(new WeakHashMap<Bitmap, Face[]>());
+        startMatrixAnimation(keyframes, timeMs, mInterpolator);
+    }
 
-        @Override
-        public Face[] process(final Bitmap bitmap) {
+    private void startMatrixAnimation(final Matrix[] keyframes, final long timeMs,
+            final Interpolator interpolator) {
 
-            final Map<Bitmap, Face[]> facesMap = mFacesMap;
+        mOneShotAnimation = false;
 
-            final Face[] preProcessed = facesMap.get(bitmap);
+        final int keyframeCount = keyframes.length;
 
-            if (preProcessed != null) {
+        final float[][] keyframeCoeffs = new float[keyframeCount][9];
 
-                if (preProcessed == NO_FACES) {
+        for (int i = 0; i < keyframeCount; i++) {
 
-                    return null;
-                }
+            keyframes[i].getValues(keyframeCoeffs[i]);
+        }
 
-                return preProcessed;
-            }
+        mKeyframes = keyframeCoeffs;
+        mEndCoeffs = keyframeCoeffs[keyframeCount - 1];
+        mMatrixPath = MatrixPath.compile(keyframeCoeffs, interpolator, timeMs);
+
+        mDuration = timeMs;
 
-            final Face[] faces = new Face[MAX_FACES];
+        final long restoredTime = mRestoredAnimationTime;
 
-            final Bitmap bitmap565 = convertTo565(bitmap);
+        mRestoredAnimationTime = -1;
 
-            if (bitmap565 != null) {
+        if (restoredTime < 0) {
 
-                final FaceDetector faceDetector =
-                        new FaceDetector(bitmap565.getWidth(), bitmap565.getHeight(), MAX_FACES);
+            setImageMatrix(keyframes[0]);
 
-                final int faceCount = faceDetector.findFaces(bitmap565, faces);
+            mStartTime = System.currentTimeMillis();
 
-                if (faceCount > 0) {
+            return;
+        }
 
-                    final Face[] detected = new Face[faceCount];
+        // Continue the animation from where it was stopped
 
-                    System.arraycopy(faces, 0, detected, 0, faceCount);
+        if ((restoredTime < timeMs) || mCyclicAnimation) {
 
-                    facesMap.put(bitmap, detected);
+            final long elapsedTime = restoredTime % timeMs;
 
-                    return detected;
-                }
-            }
+            final float[] coeffs = new float[9];
 
-            facesMap.put(bitmap, NO_FACES);
+            getAnimationCoeffs((float) elapsedTime / timeMs, coeffs);
 
-            return null;
+            final Matrix matrix = mAnimMatrix;
+
+            matrix.setValues(coeffs);
+
+            setImageMatrix(matrix);
+
+            mStartTime = System.currentTimeMillis() - elapsedTime;
+
+        } else {
+
+            setImageMatrix(keyframes[keyframeCount - 1]);
+
+            mStartTime = 0;
         }
+    }
 
-        private Bitmap convertTo565(final Bitmap origin) {
+    private void updateTiles(final TiledBitmapDrawable drawable, final long now) {
 
-            if (origin == null) {
+        final int frameWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int frameHeight = getHeight() - getPaddingTop() - getPaddingBottom();
 
-                return null;
-            }
+        drawable.setViewport(getImageMatrix(), frameWidth, frameHeight);
 
-            Bitmap bitmap = origin;
+        final long startTime = mStartTime;
 
-            if (bitmap.getConfig() != Bitmap.Config.RGB_565) {
+        if ((startTime <= 0) || (mEndCoeffs == null)) {
 
-                bitmap = bitmap.copy(Bitmap.Config.RGB_565, true);
-            }
+            return;
+        }
 
-            if ((bitmap.getWidth() & 0x1) != 0) {
+        // Load ahead the tiles along the animation path
 
-                bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth() & ~0x1,
-                                             bitmap.getHeight());
-            }
+        final Matrix matrix = mPrefetchMatrix;
+
+        final long duration = mDuration;
+        final long prefetchTime = now + TILE_PREFETCH_TIME_MS;
+
+        if ((prefetchTime >= startTime) && (prefetchTime < (startTime + duration))) {
+
+            final float[] coeffs = new float[9];
 
-            return bitmap;
+            getAnimationCoeffs((float) (prefetchTime - startTime) / duration, coeffs);
+
+            matrix.setValues(coeffs);
+
+            drawable.prefetch(matrix, frameWidth, frameHeight);
         }
 
-        private Face[] getFaces(final Bitmap bitmap) {
+        matrix.setValues(mEndCoeffs);
+
+        drawable.prefetch(matrix, frameWidth, frameHeight);
+    }
+
+    public interface MasaccioFaceDetector {
+
+        public Face[] process(Bitmap bitmap);
+    }
+
+    /**
+     * Face detector returning {@link MasaccioFace}s, which, unlike the Android SDK faces, can be
+     * created by any detection algorithm.
+     */
+    public interface FaceDetectionEngine {
+
+        /**
+         * Result of a detection the engine declined to run, which is not cached, so that the
+         * bitmap is analyzed again later.
+         */
+        public static final MasaccioFace[] SKIPPED = new MasaccioFace[0];
+
+        public MasaccioFace[] process(Bitmap bitmap);
+    }
+
+    /**
+     * Face detector describing its own capabilities.
+     */
+    public interface CapableFaceDetector extends FaceDetectionEngine {
+
+        public DetectorCapabilities getCapabilities();
+    }
+
+    private static class PlatformFaceDetector implements MasaccioFaceDetector {
+
+        @Override
+        public Face[] process(final Bitmap bitmap) {
+
+            if (bitmap == null) {
 
-            return mFacesMap.get(bitmap);
+                return null;
+            }
+
+            final Face[] faces =
+                    AndroidFaceDetector.findFaces(bitmap, AndroidFaceDetector.MAX_FACES);
+
+            getSharedFaceDetector().putFaces(bitmap, MasaccioFace.from(faces));
+
+            return faces;
         }
     }
 
@@ -857,6 +1846,134 @@ public class MasaccioImageView extends ImageView {
 
             MasaccioImageView.super.setScaleType(ScaleType.MATRIX);
 
+            final MasaccioFace[] detectedFaces = getDrawableFaces();
+            final PointF focusPoint = (detectedFaces != null) ? getFocusPoint(detectedFaces) : null;
+
+            final ScaleType scaleType = mOriginalScaleType;
+
+            if ((scaleType == ScaleType.MATRIX) || isFaceTour(detectedFaces)) {
+
+                // The original matrix and the faces path cannot be cached, so just compute the crop
+                // each time
+                applyMatrices(computeMatrices(frameWidth, frameHeight, detectedFaces, focusPoint));
+
+                return;
+            }
+
+            applyMatrices(getMatrices(frameWidth, frameHeight, detectedFaces, focusPoint));
+        }
+
+        /**
+         * Returns the keyframes of the crop from the cache, computing and storing them if not
+         * found.
+         */
+        private Matrix[] getMatrices(final float frameWidth, final float frameHeight,
+                final MasaccioFace[] detectedFaces, final PointF focusPoint) {
+
+            final int originalImageWidth = mOriginalImageWidth;
+            final int originalImageHeight = mOriginalImageHeight;
+
+            final ScaleType scaleType = mOriginalScaleType;
+
+            final boolean isAnimated = (mAnimationDuration > 0);
+
+            final CropCache.Key key =
+                    new CropCache.Key(originalImageWidth, originalImageHeight,
+                                      detectedFaces != null,
+                                      (focusPoint != null) ? focusPoint.x : Float.NaN,
+                                      (focusPoint != null) ? focusPoint.y : Float.NaN, frameWidth,
+                                      frameHeight, scaleType, mActivateMatrixFlags, mStartScale,
+                                      mStartX, mStartY, mEndScale, mEndX, mEndY, isAnimated);
+
+            final CropCache cropCache = CropCache.getInstance();
+
+            final float[][] cached = cropCache.get(key);
+
+            final Matrix[] matrices;
+
+            if (cached != null) {
+
+                matrices = new Matrix[2];
+
+                for (int i = 0; i < 2; i++) {
+
+                    if (cached[i] != null) {
+
+                        matrices[i] = new Matrix();
+                        matrices[i].setValues(cached[i]);
+                    }
+                }
+
+            } else {
+
+                matrices = computeMatrices(frameWidth, frameHeight, detectedFaces, focusPoint);
+
+                cropCache.put(key, matrices[0], matrices[1]);
+            }
+
+            return matrices;
+        }
+
+        private void applyMatrices(final Matrix[] matrices) {
+
+            if (mRefineCrop) {
+
+                mRefineCrop = false;
+
+                refineMatrices(matrices);
+
+                return;
+            }
+
+            if (matrices[0] != null) {
+
+                startMatrixAnimation(matrices, mAnimationDuration);
+
+            } else {
+
+                setImageMatrix(matrices[matrices.length - 1]);
+            }
+        }
+
+        /**
+         * Moves the image from the crop currently shown to the one computed after the detection
+         * deadline, by restarting the animation from the current matrix if any, or by a short
+         * transition otherwise. A cyclic animation is restarted from its first keyframe instead,
+         * so that the following cycles are not affected.
+         */
+        private void refineMatrices(final Matrix[] matrices) {
+
+            final Matrix currentMatrix = new Matrix(getImageMatrix());
+
+            if (matrices[0] != null) {
+
+                final Matrix[] keyframes = matrices.clone();
+
+                if (!mCyclicAnimation) {
+
+                    keyframes[0] = currentMatrix;
+                }
+
+                startMatrixAnimation(keyframes, mAnimationDuration);
+
+            } else {
+
+                startMatrixAnimation(new Matrix[]{currentMatrix, matrices[matrices.length - 1]},
+                                     REFINE_DURATION_MS, sRefineInterpolator);
+
+                mOneShotAnimation = true;
+            }
+        }
+
+        /**
+         * Returns the keyframes of the animation, where the first one is null if no animation is
+         * needed.
+         */
+        private Matrix[] computeMatrices(final float frameWidth, final float frameHeight,
+                final MasaccioFace[] faces, final PointF focusPoint) {
+
+            final boolean hasFaces = (faces != null);
+
             final int originalImageWidth = mOriginalImageWidth;
             final int originalImageHeight = mOriginalImageHeight;
 
@@ -873,13 +1990,12 @@ public class MasaccioImageView extends ImageView {
             final float maxOffsetY = newImageHeight - frameHeight;
 
             final Matrix matrix;
-            final Face[] detectedFaces = mDetectedFaces;
             final float[] translateOffset = new float[2];
             final int matrixFlag = mActivateMatrixFlags;
 
-            if (detectedFaces != null) {
+            if (hasFaces) {
 
-                getFaceOffsets(detectedFaces, translateOffset, maxScaleFactor, newImageWidth,
+                getFaceOffsets(focusPoint, translateOffset, maxScaleFactor, newImageWidth,
                                newImageHeight, maxOffsetX, maxOffsetY);
 
                 matrix = new Matrix();
@@ -889,29 +2005,24 @@ public class MasaccioImageView extends ImageView {
                 if (hasAllFlags(matrixFlag, FLAG_NO_FACE) && !hasAllFlags(matrixFlag,
                                                                           FLAG_IF_FACE)) {
 
-                    setImageMatrix(matrix);
-
-                    return;
+                    return new Matrix[]{null, matrix};
                 }
 
             } else {
 
-                matrix = getOriginalMatrix(originalImageWidth, originalImageHeight);
+                matrix = getOriginalMatrix(originalImageWidth, originalImageHeight, frameWidth,
+                                           frameHeight);
 
                 if (!hasAllFlags(matrixFlag, FLAG_NO_FACE) && hasAllFlags(matrixFlag,
                                                                           FLAG_IF_FACE)) {
 
-                    setImageMatrix(matrix);
-
-                    return;
+                    return new Matrix[]{null, matrix};
                 }
             }
 
             if (!enabledDimensions(originalImageWidth, originalImageHeight, matrixFlag)) {
 
-                setImageMatrix(matrix);
-
-                return;
+                return new Matrix[]{null, matrix};
             }
 
             final float endScale = mEndScale;
@@ -944,9 +2055,9 @@ public class MasaccioImageView extends ImageView {
                 final float endImageHeight = newImageHeight * scale;
                 final float[] scaledTranslateOffset = new float[2];
 
-                if (detectedFaces != null) {
+                if (hasFaces) {
 
-                    getFaceOffsets(detectedFaces, scaledTranslateOffset, endScaleFactor,
+                    getFaceOffsets(focusPoint, scaledTranslateOffset, endScaleFactor,
                                    endImageWidth, endImageHeight, endImageWidth - frameWidth,
                                    endImageHeight - frameHeight);
 
@@ -973,7 +2084,8 @@ public class MasaccioImageView extends ImageView {
 
                 if ((startScale < 0) && (startX == 0) && (startY == 0)) {
 
-                    startMatrix = getOriginalMatrix(originalImageWidth, originalImageHeight);
+                    startMatrix = getOriginalMatrix(originalImageWidth, originalImageHeight,
+                                                    frameWidth, frameHeight);
 
                 } else {
 
@@ -1007,12 +2119,137 @@ public class MasaccioImageView extends ImageView {
                             -scaledOffsetY + (Math.abs(startImageHeight - frameHeight) * startY));
                 }
 
-                startMatrixAnimation(startMatrix, endMatrix, mAnimationDuration);
+                if (isFaceTour(faces)) {
 
-            } else {
+                    return getFaceTour(faces, focusPoint, startMatrix, endMatrix, frameWidth,
+                                       frameHeight, maxScaleFactor, newImageWidth,
+                                       newImageHeight);
+                }
+
+                return new Matrix[]{startMatrix, endMatrix};
+            }
+
+            return new Matrix[]{null, endMatrix};
+        }
+
+        private Matrix[] getFaceTour(final MasaccioFace[] faces, final PointF focusPoint,
+                final Matrix startMatrix, final Matrix endMatrix, final float frameWidth,
+                final float frameHeight, final float maxScaleFactor, final float newImageWidth,
+                final float newImageHeight) {
+
+            final ArrayList<PointF> midPoints = new ArrayList<PointF>(faces.length);
+
+            for (final MasaccioFace face : faces) {
+
+                final PointF midPoint = new PointF();
+
+                face.getMidPoint(midPoint);
+
+                // The end matrix is already centered on the focus point
+                if ((focusPoint == null) || (midPoint.x != focusPoint.x) || (midPoint.y
+                        != focusPoint.y)) {
+
+                    midPoints.add(midPoint);
+                }
+            }
+
+            Collections.sort(midPoints, new Comparator<PointF>() {
+
+                @Override
+                public int compare(final PointF lhs, final PointF rhs) {
+
+                    return Float.compare(lhs.x, rhs.x);
+                }
+            });
+
+            final float scale = (mEndScale < 0) ? 1 : mEndScale;
+
+            final float scaleFactor = maxScaleFactor * scale;
+            final float imageWidth = newImageWidth * scale;
+            final float imageHeight = newImageHeight * scale;
+            final float maxOffsetX = imageWidth - frameWidth;
+            final float maxOffsetY = imageHeight - frameHeight;
+
+            final int midPointCount = midPoints.size();
+
+            final Matrix[] keyframes = new Matrix[midPointCount + 2];
+
+            keyframes[0] = startMatrix;
+            keyframes[midPointCount + 1] = endMatrix;
+
+            final float[] offsets = new float[2];
+
+            for (int i = 0; i < midPointCount; i++) {
+
+                getFaceOffsets(midPoints.get(i), offsets, scaleFactor, imageWidth, imageHeight,
+                               maxOffsetX, maxOffsetY);
 
-                setImageMatrix(endMatrix);
+                final Matrix matrix = new Matrix();
+
+                matrix.setScale(scaleFactor, scaleFactor);
+                matrix.postTranslate(-offsets[0] + (Math.abs(maxOffsetX) * mEndX),
+                                     -offsets[1] + (Math.abs(maxOffsetY) * mEndY));
+
+                keyframes[i + 1] = matrix;
             }
+
+            return keyframes;
+        }
+    }
+
+    private static class SavedState extends BaseSavedState {
+
+        public static final Creator<SavedState> CREATOR = new Creator<SavedState>() {
+
+            @Override
+            public SavedState createFromParcel(final Parcel source) {
+
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(final int size) {
+
+                return new SavedState[size];
+            }
+        };
+
+        private long mAnimationTime = -1;
+
+        private MasaccioFace[] mFaces;
+
+        private int mImageHeight;
+
+        private String mImageIdentity;
+
+        private int mImageWidth;
+
+        private SavedState(final Parcelable superState) {
+
+            super(superState);
+        }
+
+        private SavedState(final Parcel source) {
+
+            super(source);
+
+            mAnimationTime = source.readLong();
+            mFaces = source.createTypedArray(MasaccioFace.CREATOR);
+            mImageWidth = source.readInt();
+            mImageHeight = source.readInt();
+            mImageIdentity = source.readString();
+        }
+
+        @Override
+        public void writeToParcel(final Parcel dest, final int flags) {
+
+            super.writeToParcel(dest, flags);
+
+            dest.writeLong(mAnimationTime);
+            dest.writeTypedArray(mFaces, flags);
+            dest.writeInt(mImageWidth);
+            dest.writeInt(mImageHeight);
+            dest.writeString(mImageIdentity);
         }
     }
 
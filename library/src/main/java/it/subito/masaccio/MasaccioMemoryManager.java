@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+/**
+ * Central manager of the memory retained by the library, that is the cached crops and faces, the
+ * decoded tiles, the preprocessed luminance buffers and the queued detections.
+ * <p/>
+ * Once registered, the memory is given back according to the level of the system memory
+ * signals. On API levels lower than 14, where {@link ComponentCallbacks2} is not available, the
+ * application should forward its own {@link android.app.Application#onLowMemory()} calls to
+ * {@link #onLowMemory()}.
+ */
+public class MasaccioMemoryManager {
+
+    private static final float KEEP_ALL = 1;
+
+    private static final float KEEP_HALF = 0.5f;
+
+    private static final float KEEP_NONE = 0;
+
+    private static final float KEEP_QUARTER = 0.25f;
+
+    private static final Object sMutex = new Object();
+
+    private static ComponentCallbacks sCallbacks;
+
+    private MasaccioMemoryManager() {
+
+    }
+
+    /**
+     * Registers the manager for the memory signals of the application, if supported by the
+     * platform.
+     */
+    public static void register(final Context context) {
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+
+            return;
+        }
+
+        synchronized (sMutex) {
+
+            if (sCallbacks == null) {
+
+                sCallbacks = new TrimMemoryCallbacks();
+
+                context.getApplicationContext().registerComponentCallbacks(sCallbacks);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated memory currently retained by the library, in bytes.
+     */
+    public static long getFootprint() {
+
+        long bytes = CropCache.getInstance().getFootprint();
+
+        for (final DefaultMasaccioFaceDetector faceDetector : MasaccioImageView
+                .getFaceDetectors()) {
+
+            bytes += faceDetector.getFootprint();
+        }
+
+        for (final TiledBitmapDrawable drawable : TiledBitmapDrawable.getInstances()) {
+
+            bytes += drawable.getCacheBytes();
+        }
+
+        bytes += LuminancePreprocessor.getFootprint();
+
+        final DetectionScheduler scheduler = DetectionScheduler.getInstance();
+
+        return bytes + scheduler.getBytesInUse() + scheduler.getQueuedBytes();
+    }
+
+    /**
+     * Releases all the memory that can be recomputed. Must be called from the main thread.
+     */
+    public static void onLowMemory() {
+
+        trim(KEEP_NONE, DetectionScheduler.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Releases memory according to the specified {@link ComponentCallbacks2} level. Must be called
+     * from the main thread.
+     */
+    public static void onTrimMemory(final int level) {
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+
+            // The process is likely to be killed: release everything
+            trim(KEEP_NONE, DetectionScheduler.PRIORITY_VISIBLE);
+
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+
+            // No image is visible anymore
+            trim(KEEP_QUARTER, DetectionScheduler.PRIORITY_VISIBLE);
+
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+
+            trim(KEEP_QUARTER, DetectionScheduler.PRIORITY_DEFAULT);
+
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+
+            trim(KEEP_HALF, DetectionScheduler.PRIORITY_PREFETCH);
+
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+
+            trim(KEEP_ALL, DetectionScheduler.PRIORITY_PREFETCH);
+        }
+    }
+
+    private static void trim(final float keepRatio, final int minDroppedPriority) {
+
+        DetectionScheduler.getInstance().dropQueued(minDroppedPriority);
+
+        if (keepRatio >= KEEP_ALL) {
+
+            return;
+        }
+
+        CropCache.getInstance().trim(keepRatio);
+
+        for (final DefaultMasaccioFaceDetector faceDetector : MasaccioImageView
+                .getFaceDetectors()) {
+
+            faceDetector.trim(keepRatio);
+        }
+
+        for (final TiledBitmapDrawable drawable : TiledBitmapDrawable.getInstances()) {
+
+            drawable.trim(keepRatio);
+        }
+
+        LuminancePreprocessor.trim(keepRatio);
+    }
+
+    /**
+     * Callbacks forwarding the memory signals, loaded only on API level 14 and above.
+     */
+    private static class TrimMemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+
+        }
+
+        @Override
+        public void onLowMemory() {
+
+            MasaccioMemoryManager.onLowMemory();
+        }
+
+        @Override
+        public void onTrimMemory(final int level) {
+
+            MasaccioMemoryManager.onTrimMemory(level);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.view.animation.Interpolator;
+
+/**
+ * Animation path through a sequence of matrices, compiled into a lookup table of matrix
+ * coefficients sampled at a fixed rate.
+ * <p/>
+ * The keyframes are evenly spaced in time and the interpolator is applied to each segment, so
+ * that the path may ease in and out of every keyframe. Since the interpolation is baked into the
+ * table, computing the matrix of a frame only takes a lookup and a linear blend, whatever the
+ * number of keyframes.
+ */
+class MatrixPath {
+
+    static final int SAMPLE_RATE = 60;
+
+    private static final int COEFF_COUNT = 9;
+
+    private static final int MAX_SAMPLES = 1024;
+
+    private static final int MIN_SAMPLES = 2;
+
+    private final int mLastSample;
+
+    private final float[] mTable;
+
+    private MatrixPath(final float[] table) {
+
+        mTable = table;
+        mLastSample = (table.length / COEFF_COUNT) - 1;
+    }
+
+    /**
+     * Compiles the path through the specified keyframe coefficients, lasting the specified time.
+     */
+    static MatrixPath compile(final float[][] keyframes, final Interpolator interpolator,
+            final long durationMs) {
+
+        final int sampleCount = (int) Math.min(MAX_SAMPLES, Math.max(MIN_SAMPLES,
+                                                                     ((durationMs * SAMPLE_RATE)
+                                                                             / 1000) + 1));
+
+        final int lastSample = sampleCount - 1;
+        final int segmentCount = keyframes.length - 1;
+
+        final float[] table = new float[sampleCount * COEFF_COUNT];
+
+        for (int i = 0; i < sampleCount; i++) {
+
+            final float position = ((float) i * segmentCount) / lastSample;
+
+            final int segment = Math.min((int) position, segmentCount - 1);
+
+            final float interpolation = interpolator.getInterpolation(position - segment);
+
+            final float[] startCoeffs = keyframes[segment];
+            final float[] endCoeffs = keyframes[segment + 1];
+
+            final int offset = i * COEFF_COUNT;
+
+            for (int j = 0; j < COEFF_COUNT; j++) {
+
+                final float start = startCoeffs[j];
+
+                table[offset + j] = start + (interpolation * (endCoeffs[j] - start));
+            }
+        }
+
+        return new MatrixPath(table);
+    }
+
+    /**
+     * Fills the specified array with the coefficients of the matrix at the specified fraction of
+     * the path.
+     */
+    void getCoeffs(final float fraction, final float[] coeffs) {
+
+        final float position = Math.min(Math.max(0, fraction), 1) * mLastSample;
+
+        final int sample = Math.min((int) position, mLastSample - 1);
+
+        final float blend = position - sample;
+
+        final float[] table = mTable;
+
+        final int offset = sample * COEFF_COUNT;
+
+        for (int i = 0; i < COEFF_COUNT; i++) {
+
+            final float start = table[offset + i];
+
+            coeffs[i] = start + (blend * (table[offset + COEFF_COUNT + i] - start));
+        }
+    }
+}
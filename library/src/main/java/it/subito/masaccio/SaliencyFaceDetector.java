@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.graphics.Bitmap;
+
+import it.subito.masaccio.DetectorCapabilities.CostClass;
+import it.subito.masaccio.MasaccioImageView.CapableFaceDetector;
+import it.subito.masaccio.engine.FocalPoint;
+import it.subito.masaccio.engine.LuminanceImage;
+import it.subito.masaccio.engine.SaliencyEstimator;
+
+/**
+ * Detector returning the most salient point of the image as a single face, so that the crop is
+ * centered on the image details without running an actual face detection.
+ */
+class SaliencyFaceDetector implements CapableFaceDetector {
+
+    private static final int ANALYSIS_SIZE = 64;
+
+    // The crop ignores the faces with no confidence
+    private static final float MIN_CONFIDENCE = 0.01f;
+
+    private static final DetectorCapabilities CAPABILITIES =
+            new DetectorCapabilities(true, ANALYSIS_SIZE, CostClass.CHEAP);
+
+    private final SaliencyEstimator mEstimator = new SaliencyEstimator();
+
+    @Override
+    public DetectorCapabilities getCapabilities() {
+
+        return CAPABILITIES;
+    }
+
+    @Override
+    public MasaccioFace[] process(final Bitmap bitmap) {
+
+        final LuminanceImage image = LuminancePreprocessor.getLuminance(bitmap, ANALYSIS_SIZE);
+
+        final FocalPoint focalPoint = mEstimator.estimate(image);
+
+        if (!focalPoint.hasFace()) {
+
+            return null;
+        }
+
+        return new MasaccioFace[]{
+                new MasaccioFace(focalPoint.getX() * bitmap.getWidth(),
+                                 focalPoint.getY() * bitmap.getHeight(), 0,
+                                 Math.max(MIN_CONFIDENCE, focalPoint.getConfidence()))};
+    }
+}
@@ -0,0 +1,712 @@
+/**
+ * Copyright (C) 2014 Subito.it S.r.l (www.subito.it)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.subito.masaccio;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Drawable rendering a large image (e.g. a panorama) as a grid of tiles decoded on demand through
+ * a {@link BitmapRegionDecoder}.
+ * <p/>
+ * The whole image is never held in memory: a low resolution preview is drawn underneath and the
+ * tiles covering the visible area are decoded at the sample size required by the current image
+ * matrix. Decoded tiles are kept in an LRU cache, never smaller than twice the tiles visible in the
+ * frame plus the prefetched ones, while {@link MasaccioImageView} asks for the tiles along the
+ * animation path to be loaded ahead of time. The tiles visible in the last drawn frame are never
+ * evicted.
+ * <p/>
+ * Requires API level 10, see {@link #createFromFile(Resources, String)} for the older ones.
+ */
+public class TiledBitmapDrawable extends Drawable {
+
+    private static final int DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+
+    private static final int PREVIEW_SIZE = 1024;
+
+    private static final int TILE_SIZE = 256;
+
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    private static final ExecutorService sTileExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+
+                    final Thread thread = new Thread(runnable, "Masaccio-TileLoader");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+
+                    return thread;
+                }
+            });
+
+    private static final Map<TiledBitmapDrawable, Boolean> sInstances =
+            Collections.synchronizedMap(new WeakHashMap<TiledBitmapDrawable, Boolean>());
+
+    private final int mCacheSize;
+
+    private final BitmapRegionDecoder mDecoder;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final int mImageHeight;
+
+    private final int mImageWidth;
+
+    private final Matrix mInverseMatrix = new Matrix();
+
+    private final LoadTileRunnable mLoadTileRunnable = new LoadTileRunnable();
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Set<Long> mPendingTiles = new HashSet<Long>();
+
+    private final Set<Long> mPrefetchTiles = new HashSet<Long>();
+
+    private final Bitmap mPreview;
+
+    private final int mPreviewSampleSize;
+
+    private final LinkedBlockingDeque<Long> mTileQueue = new LinkedBlockingDeque<Long>();
+
+    private final LinkedHashMap<Long, Bitmap> mTiles =
+            new LinkedHashMap<Long, Bitmap>(16, 0.75f, true);
+
+    private final Rect mTmpDst = new Rect();
+
+    private final Matrix mTmpMatrix = new Matrix();
+
+    private final RectF mTmpRect = new RectF();
+
+    private final Rect mTmpVisibleRect = new Rect();
+
+    private final Rect mTmpSrc = new Rect();
+
+    private final Rect mVisibleRect = new Rect();
+
+    private final Set<Long> mVisibleTiles = new HashSet<Long>();
+
+    private int mCacheBytes;
+
+    private int mFrameHeight;
+
+    private int mFrameWidth;
+
+    private boolean mHasViewport;
+
+    private boolean mRecycled;
+
+    private int mSampleSize;
+
+    public TiledBitmapDrawable(final BitmapRegionDecoder decoder) {
+
+        this(decoder, DEFAULT_CACHE_SIZE);
+    }
+
+    public TiledBitmapDrawable(final BitmapRegionDecoder decoder, final int cacheSizeBytes) {
+
+        mDecoder = decoder;
+        mCacheSize = cacheSizeBytes;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+
+        final int sampleSize = getPreviewSampleSize(mImageWidth, mImageHeight);
+
+        mPreviewSampleSize = sampleSize;
+        mSampleSize = sampleSize;
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+
+        mPreview = decoder.decodeRegion(new Rect(0, 0, mImageWidth, mImageHeight), options);
+
+        sInstances.put(this, Boolean.TRUE);
+    }
+
+    /**
+     * Returns the drawables not recycled yet.
+     */
+    static List<TiledBitmapDrawable> getInstances() {
+
+        synchronized (sInstances) {
+
+            return new ArrayList<TiledBitmapDrawable>(sInstances.keySet());
+        }
+    }
+
+    /**
+     * Returns a tiled drawable for the specified image file, or, on the API levels lacking
+     * {@link BitmapRegionDecoder}, a plain bitmap drawable of the image downsampled to the preview
+     * resolution.
+     */
+    public static Drawable createFromFile(final Resources resources, final String pathName) throws
+            IOException {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+
+            return fromFile(pathName);
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        BitmapFactory.decodeFile(pathName, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getPreviewSampleSize(options.outWidth, options.outHeight);
+
+        final Bitmap bitmap = BitmapFactory.decodeFile(pathName, options);
+
+        if (bitmap == null) {
+
+            throw new IOException("cannot decode " + pathName);
+        }
+
+        return new BitmapDrawable(resources, bitmap);
+    }
+
+    /**
+     * Requires API level 10.
+     */
+    public static TiledBitmapDrawable fromFile(final String pathName) throws IOException {
+
+        return new TiledBitmapDrawable(BitmapRegionDecoder.newInstance(pathName, false));
+    }
+
+    /**
+     * Requires API level 10.
+     */
+    public static TiledBitmapDrawable fromStream(final InputStream inputStream) throws
+            IOException {
+
+        return new TiledBitmapDrawable(BitmapRegionDecoder.newInstance(inputStream, false));
+    }
+
+    private static int getPreviewSampleSize(final int width, final int height) {
+
+        int sampleSize = 1;
+
+        while (Math.max(width, height) / sampleSize > PREVIEW_SIZE) {
+
+            sampleSize <<= 1;
+        }
+
+        return sampleSize;
+    }
+
+    private static int getSampleSize(final float scale) {
+
+        int sampleSize = 1;
+
+        while ((sampleSize * 2 * scale) <= 1) {
+
+            sampleSize <<= 1;
+        }
+
+        return sampleSize;
+    }
+
+    private static long getTileKey(final int sampleSize, final int column, final int row) {
+
+        return ((long) sampleSize << 48) | ((long) column << 24) | row;
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+
+        final Rect bounds = getBounds();
+
+        if (mPreview != null) {
+
+            canvas.drawBitmap(mPreview, null, bounds, mPaint);
+        }
+
+        final Set<Long> visibleTiles = mVisibleTiles;
+
+        visibleTiles.clear();
+
+        if (!mHasViewport || mRecycled) {
+
+            return;
+        }
+
+        final Rect visibleRect = mVisibleRect;
+
+        final int sampleSize =
+                getVisibleRect(mInverseMatrix, mFrameWidth, mFrameHeight, visibleRect);
+
+        if (sampleSize != mSampleSize) {
+
+            mSampleSize = sampleSize;
+
+            pruneTileQueue(sampleSize);
+        }
+
+        if ((sampleSize >= mPreviewSampleSize) || visibleRect.isEmpty()) {
+
+            // The preview is already detailed enough
+            return;
+        }
+
+        final float scaleX = (float) bounds.width() / mImageWidth;
+        final float scaleY = (float) bounds.height() / mImageHeight;
+
+        final int tileSize = TILE_SIZE * sampleSize;
+
+        final int firstColumn = visibleRect.left / tileSize;
+        final int lastColumn = (visibleRect.right - 1) / tileSize;
+        final int firstRow = visibleRect.top / tileSize;
+        final int lastRow = (visibleRect.bottom - 1) / tileSize;
+
+        final Rect src = mTmpSrc;
+        final Rect dst = mTmpDst;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+
+            for (int column = firstColumn; column <= lastColumn; column++) {
+
+                final long key = getTileKey(sampleSize, column, row);
+
+                visibleTiles.add(key);
+
+                final Bitmap tile = mTiles.get(key);
+
+                if (tile == null) {
+
+                    requestTile(key, true);
+
+                    continue;
+                }
+
+                getTileRect(sampleSize, column, row, src);
+
+                dst.set(bounds.left + Math.round(src.left * scaleX),
+                        bounds.top + Math.round(src.top * scaleY),
+                        bounds.left + Math.round(src.right * scaleX),
+                        bounds.top + Math.round(src.bottom * scaleY));
+
+                canvas.drawBitmap(tile, null, dst, mPaint);
+            }
+        }
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+
+        return mImageHeight;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+
+        return mImageWidth;
+    }
+
+    @Override
+    public int getOpacity() {
+
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public void setAlpha(final int alpha) {
+
+        mPaint.setAlpha(alpha);
+
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter cf) {
+
+        mPaint.setColorFilter(cf);
+
+        invalidateSelf();
+    }
+
+    /**
+     * Returns the low resolution version of the image drawn while the tiles are being decoded.
+     */
+    public Bitmap getPreviewBitmap() {
+
+        return mPreview;
+    }
+
+    /**
+     * Queues the decoding of the tiles which will be visible once the specified matrix is applied,
+     * without waiting for them to appear on screen.
+     */
+    public void prefetch(final Matrix matrix, final int frameWidth, final int frameHeight) {
+
+        if (mRecycled) {
+
+            return;
+        }
+
+        final Matrix inverse = mTmpMatrix;
+
+        if (!getInverseMatrix(matrix, frameWidth, frameHeight, inverse)) {
+
+            return;
+        }
+
+        final Rect visibleRect = mTmpVisibleRect;
+
+        final int sampleSize = getVisibleRect(inverse, frameWidth, frameHeight, visibleRect);
+
+        if ((sampleSize >= mPreviewSampleSize) || visibleRect.isEmpty()) {
+
+            return;
+        }
+
+        final int tileSize = TILE_SIZE * sampleSize;
+
+        for (int row = visibleRect.top / tileSize; row <= (visibleRect.bottom - 1) / tileSize;
+             row++) {
+
+            for (int column = visibleRect.left / tileSize;
+                 column <= (visibleRect.right - 1) / tileSize; column++) {
+
+                final long key = getTileKey(sampleSize, column, row);
+
+                mPrefetchTiles.add(key);
+
+                if (!mTiles.containsKey(key)) {
+
+                    requestTile(key, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the decoder and all the cached tiles. The drawable cannot be used afterwards.
+     */
+    public void recycle() {
+
+        mRecycled = true;
+
+        sInstances.remove(this);
+
+        mTileQueue.clear();
+
+        synchronized (mPendingTiles) {
+
+            mPendingTiles.clear();
+        }
+
+        mTiles.clear();
+        mCacheBytes = 0;
+
+        mPrefetchTiles.clear();
+        mVisibleTiles.clear();
+
+        synchronized (mDecoder) {
+
+            mDecoder.recycle();
+        }
+    }
+
+    /**
+     * Returns the memory used by the cached tiles. Must be called from the main thread.
+     */
+    public int getCacheBytes() {
+
+        return mCacheBytes;
+    }
+
+    /**
+     * Evicts the least recently drawn tiles, so that only the specified ratio of the cache is
+     * kept, apart from the visible tiles. Must be called from the main thread.
+     */
+    public void trim(final float keepRatio) {
+
+        evictTiles((int) (mCacheBytes * keepRatio));
+
+        invalidateSelf();
+    }
+
+    /**
+     * Sets the matrix mapping the drawable bounds into a frame of the specified size, so to know
+     * which tiles are visible and at which resolution they should be decoded.
+     */
+    public void setViewport(final Matrix matrix, final int frameWidth, final int frameHeight) {
+
+        // The tiles prefetched for the previous frame are not needed anymore
+        mPrefetchTiles.clear();
+
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        mHasViewport = getInverseMatrix(matrix, frameWidth, frameHeight, mInverseMatrix);
+    }
+
+    private void evictTiles(final int maxBytes) {
+
+        final Set<Long> visibleTiles = mVisibleTiles;
+
+        final Iterator<Entry<Long, Bitmap>> iterator = mTiles.entrySet().iterator();
+
+        while ((mCacheBytes > maxBytes) && iterator.hasNext()) {
+
+            final Entry<Long, Bitmap> entry = iterator.next();
+
+            if (visibleTiles.contains(entry.getKey())) {
+
+                continue;
+            }
+
+            final Bitmap evicted = entry.getValue();
+
+            mCacheBytes -= evicted.getRowBytes() * evicted.getHeight();
+
+            iterator.remove();
+        }
+    }
+
+    private boolean getInverseMatrix(final Matrix matrix, final int frameWidth,
+            final int frameHeight, final Matrix inverse) {
+
+        if ((frameWidth <= 0) || (frameHeight <= 0) || (matrix == null) || !matrix.invert(
+                inverse)) {
+
+            return false;
+        }
+
+        // Map the frame back to image coordinates, taking the drawable bounds into account
+
+        final Rect bounds = getBounds();
+
+        if ((bounds.width() <= 0) || (bounds.height() <= 0)) {
+
+            return false;
+        }
+
+        inverse.postTranslate(-bounds.left, -bounds.top);
+        inverse.postScale((float) mImageWidth / bounds.width(),
+                          (float) mImageHeight / bounds.height());
+
+        return true;
+    }
+
+    /**
+     * Returns the maximum size of the cache, grown so to hold twice the tiles visible in the frame
+     * plus the prefetched ones.
+     */
+    private int getMaxCacheBytes() {
+
+        final int minTiles = (2 * mVisibleTiles.size()) + mPrefetchTiles.size();
+
+        return Math.max(mCacheSize, minTiles * TILE_BYTES);
+    }
+
+    private void getTileRect(final int sampleSize, final int column, final int row,
+            final Rect rect) {
+
+        final int tileSize = TILE_SIZE * sampleSize;
+
+        rect.set(column * tileSize, row * tileSize,
+                 Math.min((column + 1) * tileSize, mImageWidth),
+                 Math.min((row + 1) * tileSize, mImageHeight));
+    }
+
+    private int getVisibleRect(final Matrix inverse, final int frameWidth, final int frameHeight,
+            final Rect visibleRect) {
+
+        final RectF rect = mTmpRect;
+
+        rect.set(0, 0, frameWidth, frameHeight);
+
+        inverse.mapRect(rect);
+
+        final float imageWidth = rect.width();
+
+        rect.roundOut(visibleRect);
+
+        if ((imageWidth <= 0) || !visibleRect.intersect(0, 0, mImageWidth, mImageHeight)) {
+
+            visibleRect.setEmpty();
+
+            return mPreviewSampleSize;
+        }
+
+        // Frame pixels for each image pixel
+        return getSampleSize(frameWidth / imageWidth);
+    }
+
+    private void onTileLoaded(final long key, final Bitmap tile) {
+
+        synchronized (mPendingTiles) {
+
+            mPendingTiles.remove(key);
+        }
+
+        if (mRecycled || (tile == null)) {
+
+            return;
+        }
+
+        mTiles.put(key, tile);
+        mCacheBytes += tile.getRowBytes() * tile.getHeight();
+
+        // The loaded tile is the most recent one, so it is evicted only if all the others are
+        evictTiles(getMaxCacheBytes());
+
+        invalidateSelf();
+    }
+
+    /**
+     * Removes from the queue the tiles decoded at a stale sample size, unless they are prefetched
+     * for the current frame.
+     */
+    private void pruneTileQueue(final int sampleSize) {
+
+        final Set<Long> prefetchTiles = mPrefetchTiles;
+
+        synchronized (mPendingTiles) {
+
+            final Iterator<Long> iterator = mTileQueue.iterator();
+
+            while (iterator.hasNext()) {
+
+                final Long key = iterator.next();
+
+                if (((key >>> 48) != sampleSize) && !prefetchTiles.contains(key)) {
+
+                    iterator.remove();
+
+                    mPendingTiles.remove(key);
+                }
+            }
+        }
+    }
+
+    private void requestTile(final long key, final boolean isVisible) {
+
+        synchronized (mPendingTiles) {
+
+            if (!mPendingTiles.add(key)) {
+
+                if (isVisible && mTileQueue.remove(key)) {
+
+                    // Visible tiles jump ahead of the prefetched ones
+                    mTileQueue.offerFirst(key);
+                }
+
+                return;
+            }
+        }
+
+        if (isVisible) {
+
+            mTileQueue.offerFirst(key);
+
+        } else {
+
+            mTileQueue.offerLast(key);
+        }
+
+        sTileExecutor.execute(mLoadTileRunnable);
+    }
+
+    private class LoadTileRunnable implements Runnable {
+
+        private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+        private final Rect mRect = new Rect();
+
+        @Override
+        public void run() {
+
+            final Long key = mTileQueue.pollFirst();
+
+            if (key == null) {
+
+                return;
+            }
+
+            final int sampleSize = (int) (key >>> 48);
+            final int column = (int) ((key >>> 24) & 0xffffff);
+            final int row = (int) (key & 0xffffff);
+
+            final Rect rect = mRect;
+
+            getTileRect(sampleSize, column, row, rect);
+
+            final BitmapFactory.Options options = mOptions;
+            options.inSampleSize = sampleSize;
+
+            Bitmap tile = null;
+
+            synchronized (mDecoder) {
+
+                if (!mRecycled) {
+
+                    try {
+
+                        tile = mDecoder.decodeRegion(rect, options);
+
+                    } catch (final OutOfMemoryError e) {
+
+                        // Give up on this tile, the preview will be drawn instead
+                    }
+                }
+            }
+
+            final Bitmap loadedTile = tile;
+
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    onTileLoaded(key, loadedTile);
+                }
+            });
+        }
+    }
+}